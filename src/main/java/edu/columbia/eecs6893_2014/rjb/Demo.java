@@ -1,8 +1,11 @@
 package edu.columbia.eecs6893_2014.rjb;
 
 import static com.google.common.base.Preconditions.checkState;
+import edu.columbia.eecs6893_2014.rjb.chess.ChessGameFanOut;
 import edu.columbia.eecs6893_2014.rjb.chess.ChessGameVectorizer;
+import edu.columbia.eecs6893_2014.rjb.chess.HeaderFilters;
 import edu.columbia.eecs6893_2014.rjb.chess.HeuristicVectorizer;
+import edu.columbia.eecs6893_2014.rjb.chess.MultiPlyVectorizer;
 import edu.columbia.eecs6893_2014.rjb.chess.PieceCountVectorizer;
 import edu.columbia.eecs6893_2014.rjb.chess.PgnParser;
 import edu.columbia.eecs6893_2014.rjb.classifier.Classifier;
@@ -22,11 +25,26 @@ public class Demo {
 	public static void main(String[] args) {
 		File file = new File("src/data/chessdata_full.pgn");
 
-		// Create piece count vectors:
+		// Every set of vectors below is created from a single parse of the file:
+		ChessGameFanOut fanOut = new ChessGameFanOut();
 		ChessGameVectorizer pieceCountVectorizer =
 				new PieceCountVectorizer(/* turnsFromLast */ 2);
-		ImmutableList<Vector> pieceCountVectors =
-				filterOutTies(PgnParser.parse(file, pieceCountVectorizer));
+		ChessGameFanOut.MatrixOutput pieceCountOutput = fanOut.addMatrix(pieceCountVectorizer);
+		ChessGameVectorizer heuristicVectorizer =
+				new HeuristicVectorizer(/* turnsFromLast */ 2);
+		ChessGameFanOut.MatrixOutput heuristicOutput = fanOut.addMatrix(heuristicVectorizer);
+		int totalTurnsFromLast = 20;
+		int[] turnsFromLast = new int[totalTurnsFromLast / 2];
+		for (int i = 2; i <= totalTurnsFromLast; i += 2) {
+			turnsFromLast[i / 2 - 1] = i;
+		}
+		ChessGameFanOut.PlyMatrixOutput turnOutputs = fanOut.addMatrices(
+				MultiPlyVectorizer.fromEnd(new HeuristicVectorizer(/* turnsFromLast */ 2),
+						turnsFromLast));
+		PgnParser.parseFiltered(file, fanOut, HeaderFilters.decisive());
+
+		// Create piece count vectors:
+		ImmutableList<Vector> pieceCountVectors = pieceCountOutput.get().toVectors();
 
 		// Classify using standard naive Bayes, piece count vectors:
 		NaiveBayesClassifier pieceCountClassifier_standardNaiveBayes =
@@ -58,10 +76,7 @@ public class Demo {
 				"logistic regression, piece count vectors");
 
 		// Create chess-specific heuristic vectors:
-		ChessGameVectorizer heuristicVectorizer =
-				new HeuristicVectorizer(/* turnsFromLast */ 2);
-		ImmutableList<Vector> heuristicVectors =
-				filterOutTies(PgnParser.parse(file, heuristicVectorizer));
+		ImmutableList<Vector> heuristicVectors = heuristicOutput.get().toVectors();
 
 		// Classify using standard naive Bayes, chess-specific heuristic vectors:
 		NaiveBayesClassifier heuristicClassifier_standardNaiveBayes =
@@ -95,13 +110,9 @@ public class Demo {
 		// We now take the most accurate method from above, and try it on many
 		// different game turns. The most accurate method from above is:
 		// complementary naive Bayes using chess-specific heuristic vectors
-		int totalTurnsFromLast = 20;
 		double[] accuracy = new double[totalTurnsFromLast]; // Note this is 0-indexed.
 		for (int i = 2; i <= totalTurnsFromLast; i += 2) {
-			ChessGameVectorizer currentVectorizer =
-					new HeuristicVectorizer(/* turnsFromLast */ i);
-			ImmutableList<Vector> currentVectors =
-					filterOutTies(PgnParser.parse(file, currentVectorizer));
+			ImmutableList<Vector> currentVectors = turnOutputs.get(i).toVectors();
 			NaiveBayesClassifier currentClassifier =
 					new NaiveBayesClassifier(
 							NaiveBayesClassifier.Type.COMPLEMENTARY,
@@ -175,21 +186,4 @@ public class Demo {
 
 		return accuracy;
 	}
-
-	/**
-	 * Filters out {@link Vector}s categorized as "tie".
-	 */
-	private static ImmutableList<Vector> filterOutTies(ImmutableList<Vector> vectors) {
-		boolean seenTie = false;
-		ImmutableList.Builder<Vector> filtered = ImmutableList.builder();
-		for (Vector vector : vectors) {
-			if (!vector.category.equals("tie")) {
-				filtered.add(vector);
-			} else {
-				seenTie = true;
-			}
-		}
-		checkState(seenTie, "filter didn't do anything, should only be used with chess vectors");
-		return filtered.build();
-	}
 }
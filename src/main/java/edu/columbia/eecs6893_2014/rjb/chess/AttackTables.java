@@ -0,0 +1,229 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Precomputed attack sets for every piece type, as bitboards with bit
+ * {@code rank * 8 + file} set for each attacked square.
+ *<p>
+ * Knight, king and pawn attacks are looked up directly by square. Rook and bishop
+ * attacks depend on which squares block their rays, and are looked up using magic
+ * bitboards: the relevant blockers are multiplied by a per-square magic number whose
+ * top bits then index a table of attack sets. The magic numbers below were found by
+ * a random search for numbers which map blockers with different attacks to different
+ * entries; they are checked again when the tables are filled in.
+ */
+final class AttackTables {
+	static final long FILE_A = 0x0101010101010101L;
+	static final long FILE_B = FILE_A << 1;
+	static final long FILE_G = FILE_A << 6;
+	static final long FILE_H = FILE_A << 7;
+	static final long RANK_1 = 0xffL;
+	static final long RANK_8 = RANK_1 << 56;
+
+	// Directions as (rank offset, file offset) pairs, for sliding pieces:
+	private static final int[][] ROOK_DIRECTIONS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+	private static final int[][] BISHOP_DIRECTIONS = {{-1, -1}, {1, -1}, {-1, 1}, {1, 1}};
+
+	private static final long[] ROOK_MAGICS = {
+			0x4080001020400080L, 0xd440081000402000L, 0x4080200010000880L,
+			0x0480040800801000L, 0x0a00090200200410L, 0x03001a0100040008L,
+			0x210008a900020004L, 0x0100003207804100L, 0xe041800080400020L,
+			0x2100400050002000L, 0x8002002200804014L, 0x0001002009001000L,
+			0x0240800400080080L, 0x231a004200104804L, 0x0001000402000100L,
+			0x3402000102008054L, 0x8120008080004000L, 0x2010004040002004L,
+			0x8410008020008012L, 0x1220808008001002L, 0x0a08004004020041L,
+			0x4010808002000400L, 0x0001040042081041L, 0x2000820004640491L,
+			0x0060800080204008L, 0x8020200040005000L, 0x00a0402200108208L,
+			0x0000080080801000L, 0x1020040080800800L, 0x406a000404002010L,
+			0x0001000101020004L, 0x0000010200008044L, 0xa000400028800080L,
+			0x80a0004000802088L, 0x0120090041001020L, 0x2010810801801000L,
+			0x0800040080800800L, 0x0002000402000810L, 0x6420028104000810L,
+			0x001204198a001443L, 0x0100800040008020L, 0x8010460104820022L,
+			0x0240200010008080L, 0x4208010200101000L, 0x0600040008008080L,
+			0x0002001020040400L, 0x1000011008840042L, 0x2400094414820001L,
+			0x80c4800020400480L, 0x0120002080400080L, 0x0020200090008180L,
+			0x0140100008008080L, 0x0000800800040080L, 0x8044008004020080L,
+			0x0280800100020080L, 0x0000801100104080L, 0x0008408208110022L,
+			0x0102001080284102L, 0x22428a00306080c2L, 0x0200210010000409L,
+			0x0002000420110802L, 0x4802004815102c42L, 0x04002810110200c4L,
+			0x2003000494412201L};
+	private static final long[] BISHOP_MAGICS = {
+			0x8040420802008412L, 0x0022700102118440L, 0x30041804a1008001L,
+			0x8004040a88000000L, 0x0002121002000010L, 0x08c1040242000041L,
+			0x2200440248400000L, 0x0000208050282000L, 0x224c082008020061L,
+			0x06008d3102041100L, 0x800d884840448002L, 0x1001211041040010L,
+			0x0000020210200238L, 0x0000810108400001L, 0x0f0589010110c000L,
+			0x4a0081010110b200L, 0x2888401050100080L, 0x8230504404080050L,
+			0x8050020800481020L, 0x0228000420401040L, 0x0402200c00a01804L,
+			0x0001002020884043L, 0x4051000201092188L, 0x008100819a880100L,
+			0x0010041040040441L, 0x00062000020c2c52L, 0x0041100081040020L,
+			0x4402040008040808L, 0x0001001121004000L, 0x0010920001011080L,
+			0x00041290414a3000L, 0xa201002189008840L, 0x00c4244000843001L,
+			0x0184020884200100L, 0x0510129000180041L, 0x000c020080080080L,
+			0x1078122400804100L, 0x2220080020094400L, 0x4011412204010804L,
+			0x0030891045520202L, 0x001608022b0c4004L, 0x0008421010840445L,
+			0x0040140024008800L, 0x3000e94200880802L, 0x2800080104010440L,
+			0x2440010410201100L, 0x2008022812200040L, 0x04010c0105400208L,
+			0x0000410410402242L, 0x0120240104100948L, 0xa444018c04060248L,
+			0x0000020020880080L, 0x0028a00821010862L, 0x0802100210111140L,
+			0x0020603441044000L, 0xc0100408809a0080L, 0x0222010100908401L,
+			0x0002010401013820L, 0x4011100308411040L, 0x0420002404208802L,
+			0x8008030012020200L, 0x4000490920080082L, 0x0008851024080490L,
+			0x0240210802004842L};
+
+	private static final long[] KNIGHT_ATTACKS = new long[64];
+	private static final long[] KING_ATTACKS = new long[64];
+	private static final long[][] PAWN_ATTACKS = new long[2][64]; // Indexed by player.
+
+	private static final SlidingAttacks ROOK_ATTACKS;
+	private static final SlidingAttacks BISHOP_ATTACKS;
+
+	static {
+		for (int square = 0; square < 64; square++) {
+			long bit = 1L << square;
+			KNIGHT_ATTACKS[square] = knightAttacks(bit);
+			KING_ATTACKS[square] = kingAttacks(bit);
+			for (ChessPlayer player : ChessPlayer.values()) {
+				PAWN_ATTACKS[player.ordinal()][square] = pawnAttacks(player, bit);
+			}
+		}
+		ROOK_ATTACKS = new SlidingAttacks(ROOK_DIRECTIONS, ROOK_MAGICS);
+		BISHOP_ATTACKS = new SlidingAttacks(BISHOP_DIRECTIONS, BISHOP_MAGICS);
+	}
+
+	/**
+	 * No public constructor; use the static methods.
+	 */
+	private AttackTables() {
+	}
+
+	static long knightAttacks(int square) {
+		return KNIGHT_ATTACKS[square];
+	}
+
+	static long kingAttacks(int square) {
+		return KING_ATTACKS[square];
+	}
+
+	/**
+	 * Returns the squares attacked by a pawn of the given player on the square.
+	 */
+	static long pawnAttacks(ChessPlayer player, int square) {
+		return PAWN_ATTACKS[player.ordinal()][square];
+	}
+
+	/**
+	 * Returns the squares attacked by a rook on the square, given which squares are occupied.
+	 */
+	static long rookAttacks(int square, long occupied) {
+		return ROOK_ATTACKS.get(square, occupied);
+	}
+
+	/**
+	 * Returns the squares attacked by a bishop on the square, given which squares are occupied.
+	 */
+	static long bishopAttacks(int square, long occupied) {
+		return BISHOP_ATTACKS.get(square, occupied);
+	}
+
+	static long queenAttacks(int square, long occupied) {
+		return ROOK_ATTACKS.get(square, occupied) | BISHOP_ATTACKS.get(square, occupied);
+	}
+
+	/**
+	 * Returns the squares attacked by knights on any of the given squares.
+	 */
+	static long knightAttacks(long knights) {
+		return ((knights << 17) & ~FILE_A)
+				| ((knights << 15) & ~FILE_H)
+				| ((knights << 10) & ~(FILE_A | FILE_B))
+				| ((knights << 6) & ~(FILE_G | FILE_H))
+				| ((knights >>> 17) & ~FILE_H)
+				| ((knights >>> 15) & ~FILE_A)
+				| ((knights >>> 10) & ~(FILE_G | FILE_H))
+				| ((knights >>> 6) & ~(FILE_A | FILE_B));
+	}
+
+	/**
+	 * Returns the squares attacked by kings on any of the given squares.
+	 */
+	static long kingAttacks(long kings) {
+		long sideways = ((kings << 1) & ~FILE_A) | ((kings >>> 1) & ~FILE_H);
+		long row = kings | sideways;
+		return sideways | (row << 8) | (row >>> 8);
+	}
+
+	/**
+	 * Returns the squares attacked by the player's pawns on any of the given squares.
+	 */
+	static long pawnAttacks(ChessPlayer player, long pawns) {
+		if (player == ChessPlayer.WHITE) {
+			return ((pawns << 7) & ~FILE_H) | ((pawns << 9) & ~FILE_A);
+		} else {
+			return ((pawns >>> 9) & ~FILE_H) | ((pawns >>> 7) & ~FILE_A);
+		}
+	}
+
+	/**
+	 * Returns the squares reached from the square by moving in each of the directions,
+	 * up to and including the first occupied square. Only used to fill in the tables.
+	 */
+	private static long walkRays(int square, long occupied, int[][] directions) {
+		long attacks = 0;
+		for (int[] direction : directions) {
+			int rank = square / 8 + direction[0];
+			int file = square % 8 + direction[1];
+			while (rank >= 0 && rank <= 7 && file >= 0 && file <= 7) {
+				long bit = 1L << (rank * 8 + file);
+				attacks |= bit;
+				if ((occupied & bit) != 0) {
+					break;
+				}
+				rank += direction[0];
+				file += direction[1];
+			}
+		}
+		return attacks;
+	}
+
+	/**
+	 * Magic bitboard tables for one kind of sliding piece.
+	 */
+	private static class SlidingAttacks {
+		private final long[] masks = new long[64];
+		private final long[] magics;
+		private final int[] shifts = new int[64];
+		private final long[][] attacks = new long[64][];
+
+		private SlidingAttacks(int[][] directions, long[] magics) {
+			this.magics = magics;
+			for (int square = 0; square < 64; square++) {
+				// Blockers on the edge of the board never change the attacks,
+				// unless the piece itself is on that edge.
+				long edges = ((RANK_1 | RANK_8) & ~(RANK_1 << (8 * (square / 8))))
+						| ((FILE_A | FILE_H) & ~(FILE_A << (square % 8)));
+				masks[square] = walkRays(square, /* occupied */ 0, directions) & ~edges;
+				int bits = Long.bitCount(masks[square]);
+				shifts[square] = 64 - bits;
+
+				// Enumerate every subset of the mask, and store the attacks for each.
+				attacks[square] = new long[1 << bits];
+				long subset = 0;
+				do {
+					long subsetAttacks = walkRays(square, subset, directions);
+					int index = (int) ((subset * magics[square]) >>> shifts[square]);
+					checkState(attacks[square][index] == 0 || attacks[square][index] == subsetAttacks,
+							"magic number doesn't work for square %s", square);
+					attacks[square][index] = subsetAttacks;
+					subset = (subset - masks[square]) & masks[square];
+				} while (subset != 0);
+			}
+		}
+
+		private long get(int square, long occupied) {
+			return attacks[square][(int) (((occupied & masks[square]) * magics[square])
+					>>> shifts[square])];
+		}
+	}
+}
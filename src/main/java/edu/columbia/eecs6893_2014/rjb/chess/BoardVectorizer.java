@@ -0,0 +1,38 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import edu.columbia.eecs6893_2014.rjb.classifier.Vectorizer.Vector;
+
+/**
+ * A {@link ChessGameVectorizer} whose features come from a single board of the game,
+ * a number of turns before the end. The same features can be taken from several
+ * boards of each game with a {@link MultiPlyVectorizer}.
+ */
+public abstract class BoardVectorizer extends ChessGameVectorizer {
+	private final int turnsFromLast;
+
+	/**
+	 * Constructs a {@link BoardVectorizer} that will use the specified game turn.
+	 */
+	protected BoardVectorizer(int turnsFromLast) {
+		this.turnsFromLast = turnsFromLast;
+	}
+
+	/**
+	 * Only the board used for the vector is kept.
+	 */
+	@Override
+	public PlySelection getPlySelection() {
+		return fromEnd(turnsFromLast);
+	}
+
+	@Override
+	protected void writeFeatures(ChessGame game, double[] values, int offset) {
+		writeFeatures(getBoard(game, turnsFromLast), values, offset);
+	}
+
+	/**
+	 * Writes the values of a board's features into the array, starting at the offset.
+	 * The features should match those returned by {@link #features()}.
+	 */
+	protected abstract void writeFeatures(ImmutableChessboard board, double[] values, int offset);
+}
@@ -1,22 +1,41 @@
 package edu.columbia.eecs6893_2014.rjb.chess;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.base.Objects;
-import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 
 import javax.annotation.Nullable;
 
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
  * Represents an entire chess game: all board states, the winner, other metadata.
+ *<p>
+ * A game built with a {@link PlySelection} other than {@link PlySelection#all()}
+ * only keeps the selected board states; {@link #boardStates} is then empty, and
+ * the selected states are available through {@link #getBoardState(int)}.
+ * Aggregates over every ply are kept in {@link #trajectory} either way.
  */
 public class ChessGame {
+	// The tag giving the position a game starts from, if it isn't the usual one.
+	static final String FEN_TAG = "FEN";
+
 	public final ImmutableList<ImmutableChessboard> boardStates;
 	public final ImmutableMap<String, String> metadata;
 	@Nullable public final ChessPlayer winner; // Null indicates a tie.
+	public final GameTrajectory trajectory;
+	// Every move of the game, packed by ChessMove.pack(); used to cache parsed games.
+	final short[] packedMoves;
+	// The selected board states, by ply; empty if every board state was kept.
+	private final ImmutableSortedMap<Integer, ImmutableChessboard> selectedBoardStates;
 
 	/**
 	 * No public constructor; use the builder.
@@ -25,6 +44,32 @@ public class ChessGame {
 		this.boardStates = builder.boardStatesBuilder.build();
 		this.metadata = builder.metadataBuilder.build();
 		this.winner = builder.winner;
+		this.trajectory = builder.trajectory.build();
+		this.packedMoves = Arrays.copyOf(builder.packedMoves, builder.moveCount);
+		this.selectedBoardStates = builder.buildSelectedBoardStates();
+	}
+
+	/**
+	 * Returns the number of plies (half-moves) in the game, which is also
+	 * the number of board states whether or not they were all kept.
+	 */
+	public int getPlyCount() {
+		return packedMoves.length;
+	}
+
+	/**
+	 * Returns the board after the given ply, counted from the start of the game
+	 * (so this is equivalent to {@code boardStates.get(ply)} when every board
+	 * state was kept). Throws an exception if that board state wasn't selected.
+	 */
+	public ImmutableChessboard getBoardState(int ply) {
+		checkElementIndex(ply, getPlyCount(), "ply");
+		if (boardStates.size() == getPlyCount()) {
+			return boardStates.get(ply);
+		}
+		ImmutableChessboard boardState = selectedBoardStates.get(ply);
+		checkArgument(boardState != null, "board state for ply %s was not selected", ply);
+		return boardState;
 	}
 
 	@Override
@@ -37,21 +82,26 @@ public class ChessGame {
 		}
 		final ChessGame that = (ChessGame) other;
 		return Objects.equal(this.boardStates, that.boardStates)
+				&& Objects.equal(this.selectedBoardStates, that.selectedBoardStates)
 				&& Objects.equal(this.metadata, that.metadata)
-				&& Objects.equal(this.winner, that.winner);
+				&& Objects.equal(this.winner, that.winner)
+				&& Objects.equal(this.trajectory, that.trajectory);
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hashCode(this.boardStates, this.metadata, this.winner);
+		return Objects.hashCode(this.boardStates, this.selectedBoardStates, this.metadata,
+				this.winner, this.trajectory);
 	}
 
 	@Override
 	public String toString() {
 		return Objects.toStringHelper(this)
 				.add("boardStates", boardStates)
+				.add("selectedBoardStates", selectedBoardStates)
 				.add("metadata", metadata)
 				.add("winner", winner)
+				.add("trajectory", trajectory)
 				.toString();
 	}
 
@@ -59,18 +109,57 @@ public class ChessGame {
 	 * Builder for {@link ChessGame}.
 	 */
 	public static class Builder {
-		private final Chessboard currentBoard;
+		private final PlySelection plySelection;
+		private Chessboard currentBoard;
 		private final ImmutableList.Builder<ImmutableChessboard> boardStatesBuilder;
 		private final ImmutableMap.Builder<String, String> metadataBuilder;
 		private ChessPlayer winner;
 		private ChessPlayer nextToMove;
+		private short[] packedMoves = new short[128];
+		private int moveCount = 0;
+
+		// Board states selected from the start, and a ring buffer holding the placements
+		// of the most recent plies, from which the states selected from the end are built.
+		private final ImmutableSortedMap.Builder<Integer, ImmutableChessboard> fromStartBuilder;
+		private final byte[][] recentPlacements;
+		private final GameTrajectory.Builder trajectory = new GameTrajectory.Builder();
 
+		// While the game follows moves in the opening cache, the node of the last move;
+		// currentBoard is then only brought up to date once the game leaves the cache.
+		@Nullable private final OpeningCache openingCache;
+		@Nullable private OpeningCache.Node openingNode;
+		private boolean isCurrentBoardUpToDate = true;
+
+		/**
+		 * Constructs a builder which keeps every board state.
+		 */
 		public Builder() {
+			this(PlySelection.all());
+		}
+
+		/**
+		 * Constructs a builder which only keeps the selected board states.
+		 */
+		public Builder(PlySelection plySelection) {
+			this(plySelection, /* openingCache */ null);
+		}
+
+		/**
+		 * Constructs a builder which only keeps the selected board states, and which
+		 * reuses the moves and boards of earlier games with the same opening, if given
+		 * an {@link OpeningCache}.
+		 */
+		Builder(PlySelection plySelection, @Nullable OpeningCache openingCache) {
+			this.plySelection = checkNotNull(plySelection, "plySelection");
+			this.openingCache = openingCache;
+			this.openingNode = (openingCache == null) ? null : openingCache.getRoot();
+			this.fromStartBuilder = ImmutableSortedMap.naturalOrder();
+			this.recentPlacements = new byte[plySelection.getMaxFromEnd()][Chessboard.PLACEMENT_LENGTH];
 			this.currentBoard = new Chessboard();
 			this.boardStatesBuilder = ImmutableList.builder();
 			this.metadataBuilder = ImmutableMap.builder();
 			this.winner = null;
-			this.nextToMove = ChessPlayer.WHITE; // White always goes first.
+			this.nextToMove = ChessPlayer.WHITE; // White goes first, unless there's a FEN tag.
 		}
 		
 		public ChessGame build() {
@@ -83,31 +172,155 @@ public class ChessGame {
 		 *<p>
 		 * Even though we know which player should move next, we take it as
 		 * an argument here as an extra precaution.
+		 *<p>
+		 * The move is only read during this call, so it may be a reused buffer.
 		 */
-		public void addMove(String sanMove, ChessPlayer player) {
+		public void addMove(CharSequence sanMove, ChessPlayer player) {
+			advanceTurn(player);
+			if (openingNode == null) {
+				applyMove(ChessMove.decodeSanMove(sanMove, player, currentBoard));
+				return;
+			}
+
+			OpeningCache.Node cachedMove = openingCache.getChild(openingNode, sanMove);
+			if (cachedMove != null) {
+				openingNode = cachedMove;
+				isCurrentBoardUpToDate = false;
+				recordMove(cachedMove.packedMove, cachedMove.board, cachedMove.isCheck);
+				return;
+			}
+			updateCurrentBoard();
+			short packedMove = ChessMove.decodeSanMove(sanMove, player, currentBoard);
+			currentBoard.playMove(packedMove);
+			ImmutableChessboard board = currentBoard.asImmutable();
+			boolean isCheck = currentBoard.isSideToMoveInCheck();
+			openingNode = openingCache.addChild(openingNode, sanMove, packedMove, board, isCheck);
+			recordMove(packedMove, board, isCheck);
+		}
+
+		/**
+		 * Applies a move packed by {@link ChessMove#pack(ChessMove)} to the current
+		 * board; this skips SAN parsing, so it is used to replay cached games.
+		 */
+		void addPackedMove(short packedMove, ChessPlayer player) {
+			advanceTurn(player);
+			updateCurrentBoard();
+			openingNode = null;
+			ChessPiece piece = checkNotNull(
+					currentBoard.getPieceAtSquare(ChessMove.getOrigin(packedMove)),
+					"no piece at origin of packed move");
+			checkState(piece.owner == player, "found piece with wrong owner");
+			applyMove(packedMove);
+		}
+
+		private void advanceTurn(ChessPlayer player) {
 			checkArgument(player.equals(nextToMove), "unexpected player");
 			nextToMove = (nextToMove.equals(ChessPlayer.WHITE))
 					? ChessPlayer.BLACK : ChessPlayer.WHITE;
+		}
 
-			// We allow for a list here, since castling involves two pieces moving.
-			ImmutableCollection<ChessMove> moves =
-					ChessMove.parseSanMove(sanMove, player, currentBoard);
-			for (ChessMove move : moves) {
-				currentBoard.acceptMove(move);
+		/**
+		 * Brings the current board up to date with the last move followed in the
+		 * opening cache.
+		 */
+		private void updateCurrentBoard() {
+			if (!isCurrentBoardUpToDate) {
+				currentBoard = new Chessboard(openingNode.board);
+				isCurrentBoardUpToDate = true;
 			}
+		}
 
-			boardStatesBuilder.add(currentBoard.asImmutable());
+		private void applyMove(short packedMove) {
+			currentBoard.playMove(packedMove);
+			recordMove(packedMove, /* board */ null, currentBoard.isSideToMoveInCheck());
+		}
+
+		/**
+		 * Records a move which has been applied, given the board after it if there is
+		 * already a snapshot of it, or else null to use the current board, and whether
+		 * the move gave check.
+		 */
+		private void recordMove(short packedMove, @Nullable ImmutableChessboard board,
+				boolean isCheck) {
+			if (moveCount == packedMoves.length) {
+				packedMoves = Arrays.copyOf(packedMoves, 2 * moveCount);
+			}
+			int ply = moveCount;
+			packedMoves[moveCount++] = packedMove;
+			trajectory.addMove(packedMove, (board != null) ? board : currentBoard, isCheck);
+
+			if (plySelection.isAll()) {
+				boardStatesBuilder.add((board != null) ? board : currentBoard.asImmutable());
+				return;
+			}
+			if (plySelection.includesFromStart(ply)) {
+				fromStartBuilder.put(ply, (board != null) ? board : currentBoard.asImmutable());
+			}
+			if (recentPlacements.length > 0) {
+				((board != null) ? board : currentBoard).copyPlacementTo(
+						recentPlacements[ply % recentPlacements.length]);
+			}
+		}
+
+		private ImmutableSortedMap<Integer, ImmutableChessboard> buildSelectedBoardStates() {
+			if (plySelection.isAll()) {
+				return ImmutableSortedMap.of();
+			}
+			Map<Integer, ImmutableChessboard> selected =
+					new TreeMap<Integer, ImmutableChessboard>(fromStartBuilder.build());
+			if (moveCount > 0) {
+				for (int turnsFromLast : plySelection.getFromEnd()) {
+					int ply = Math.max(moveCount - turnsFromLast, 0);
+					if (!selected.containsKey(ply)) {
+						selected.put(ply, ImmutableChessboard.fromPlacement(
+								recentPlacements[ply % recentPlacements.length]));
+					}
+				}
+			}
+			return ImmutableSortedMap.copyOf(selected);
 		}
 
 		/**
 		 * Adds a metadata key/value pair.
+		 *<p>
+		 * A "FEN" tag gives the position the game starts from, in Forsyth-Edwards
+		 * Notation; it must be added before any moves.
 		 */
 		public void addMetadata(String key, String value) {
 			checkNotNull(key, "key");
 			checkNotNull(value, "value");
+			if (key.equals(FEN_TAG)) {
+				setUpPosition(value);
+			}
 			metadataBuilder.put(key, value);
 		}
 
+		/**
+		 * Adds every metadata key/value pair in the map.
+		 */
+		public void addAllMetadata(Map<String, String> metadata) {
+			String fen = metadata.get(FEN_TAG);
+			if (fen != null) {
+				setUpPosition(fen);
+			}
+			metadataBuilder.putAll(metadata);
+		}
+
+		private void setUpPosition(String fen) {
+			checkState(moveCount == 0, "the starting position must be set before any moves");
+			currentBoard = Fen.parse(fen);
+			trajectory.setStartingPosition(currentBoard);
+			openingNode = null; // The cache only holds games from the starting position.
+			nextToMove = currentBoard.getSideToMove();
+		}
+
+		/**
+		 * Returns the player who should make the next move.
+		 */
+		ChessPlayer getNextToMove() {
+			return nextToMove;
+		}
+
 		public void setWinner(@Nullable ChessPlayer winner) {
 			this.winner = winner;
 		}
@@ -0,0 +1,250 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import edu.columbia.eecs6893_2014.rjb.classifier.FeatureMatrix;
+import edu.columbia.eecs6893_2014.rjb.classifier.Vectorizer.Vector;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs several {@link PgnParser.ChessGameConverter}s against each game of a single
+ * parse, so that an experiment using N converters parses and replays the PGN file
+ * once instead of N times.
+ *<p>
+ * Each converter is registered with {@link #add(PgnParser.ChessGameConverter)},
+ * which collects its output into a list, or with
+ * {@link #add(PgnParser.ChessGameConverter, PgnParser.ChessGameSink)}, which
+ * hands its output to a sink; vectorizers may also be registered with
+ * {@link #addMatrix(ChessGameVectorizer)} or {@link #addMatrices(MultiPlyVectorizer)},
+ * which collect their vectors into {@link FeatureMatrix}s. Then parse using
+ * {@link PgnParser#parse(java.io.File, ChessGameFanOut)}, or pass {@link #converter()}
+ * and {@link #sink()} to any other parse method, such as
+ * {@link PgnParser#parseParallel(java.io.File, PgnParser.ChessGameConverter,
+ * PgnParser.ChessGameSink, boolean)}.
+ *<p>
+ * The registered converters are fixed by the first call to {@link #converter()} or
+ * {@link #sink()}, so that both see the same converters; registering another converter
+ * after that throws {@link IllegalStateException}.
+ */
+public class ChessGameFanOut {
+	private final List<Branch<?>> branches = new ArrayList<Branch<?>>();
+	@Nullable private ImmutableList<Branch<?>> frozenBranches = null;
+
+	/**
+	 * The output of every registered converter for one game.
+	 */
+	public static final class Row {
+		private final Object[] outputs;
+
+		private Row(Object[] outputs) {
+			this.outputs = outputs;
+		}
+	}
+
+	/**
+	 * A list of output from one converter, filled in as games are parsed.
+	 */
+	public static final class Output<A> implements PgnParser.ChessGameSink<A> {
+		private final ImmutableList.Builder<A> outputs = ImmutableList.builder();
+
+		private Output() {
+		}
+
+		@Override
+		public void accept(A convertedGame) {
+			outputs.add(convertedGame);
+		}
+
+		/**
+		 * Returns the output collected so far, in the order the games were parsed.
+		 */
+		public ImmutableList<A> get() {
+			return outputs.build();
+		}
+	}
+
+	/**
+	 * The vectors from one vectorizer, collected into a {@link FeatureMatrix} as games
+	 * are parsed.
+	 */
+	public static final class MatrixOutput implements PgnParser.ChessGameSink<Vector> {
+		private final FeatureMatrix.Builder matrix;
+
+		private MatrixOutput(ChessGameVectorizer vectorizer) {
+			this.matrix = new FeatureMatrix.Builder(vectorizer.categories(), vectorizer.features());
+		}
+
+		@Override
+		public void accept(Vector vector) {
+			matrix.addRow(vector);
+		}
+
+		/**
+		 * Returns the vectors collected so far, in the order the games were parsed.
+		 */
+		public FeatureMatrix get() {
+			return matrix.build();
+		}
+	}
+
+	/**
+	 * The vectors from a {@link MultiPlyVectorizer}, collected into a
+	 * {@link FeatureMatrix} for each ply as games are parsed.
+	 */
+	public static final class PlyMatrixOutput
+			implements PgnParser.ChessGameSink<ImmutableList<MultiPlyVectorizer.PlyVector>> {
+		private final ImmutableMap<Integer, FeatureMatrix.Builder> matrices;
+
+		private PlyMatrixOutput(MultiPlyVectorizer vectorizer) {
+			ImmutableMap.Builder<Integer, FeatureMatrix.Builder> builder = ImmutableMap.builder();
+			for (int ply : ImmutableSet.copyOf(vectorizer.plies())) {
+				builder.put(ply,
+						new FeatureMatrix.Builder(vectorizer.categories(), vectorizer.features()));
+			}
+			this.matrices = builder.build();
+		}
+
+		@Override
+		public void accept(ImmutableList<MultiPlyVectorizer.PlyVector> vectors) {
+			for (MultiPlyVectorizer.PlyVector vector : vectors) {
+				matrices.get(vector.ply).addRow(vector);
+			}
+		}
+
+		/**
+		 * Returns the vectors collected so far for the ply, in the order the games
+		 * were parsed.
+		 */
+		public FeatureMatrix get(int ply) {
+			FeatureMatrix.Builder matrix = matrices.get(ply);
+			checkArgument(matrix != null, "ply %s was not vectorized", ply);
+			return matrix.build();
+		}
+	}
+
+	/**
+	 * Registers a converter whose output is collected into the returned list.
+	 */
+	public <A> Output<A> add(PgnParser.ChessGameConverter<A> converter) {
+		Output<A> output = new Output<A>();
+		add(converter, output);
+		return output;
+	}
+
+	/**
+	 * Registers a vectorizer whose vectors are collected into the returned matrix,
+	 * which takes much less memory than a list of sparse vectors.
+	 */
+	public MatrixOutput addMatrix(ChessGameVectorizer vectorizer) {
+		MatrixOutput output = new MatrixOutput(vectorizer);
+		add(vectorizer.denseConverter(), output);
+		return output;
+	}
+
+	/**
+	 * Registers a vectorizer whose vectors are collected into a matrix for each ply,
+	 * all from a single replay of each game.
+	 */
+	public PlyMatrixOutput addMatrices(MultiPlyVectorizer vectorizer) {
+		PlyMatrixOutput output = new PlyMatrixOutput(vectorizer);
+		add(vectorizer, output);
+		return output;
+	}
+
+	/**
+	 * Registers a converter whose output is handed to the sink.
+	 */
+	public <A> void add(PgnParser.ChessGameConverter<A> converter,
+			PgnParser.ChessGameSink<? super A> sink) {
+		checkState(frozenBranches == null,
+				"cannot register converters after converter() or sink() was called");
+		branches.add(new Branch<A>(converter, sink));
+	}
+
+	/**
+	 * Returns a converter which runs every registered converter against a game.
+	 * Like any converter, it may be called concurrently from multiple threads.
+	 *<p>
+	 * Games are built with every board state needed by any registered converter;
+	 * see {@link PgnParser.PlySelectingConverter}.
+	 */
+	public PgnParser.PlySelectingConverter<Row> converter() {
+		final ImmutableList<Branch<?>> currentBranches = freeze();
+		PlySelection union = PlySelection.none();
+		for (Branch<?> branch : currentBranches) {
+			union = union.union(PgnParser.plySelection(branch.converter));
+		}
+		final PlySelection plySelection = union;
+		return new PgnParser.PlySelectingConverter<Row>() {
+			@Override
+			public Row convert(ChessGame game) {
+				Object[] outputs = new Object[currentBranches.size()];
+				for (int i = 0; i < outputs.length; i++) {
+					outputs[i] = currentBranches.get(i).converter.convert(game);
+				}
+				return new Row(outputs);
+			}
+
+			@Override
+			public PlySelection getPlySelection() {
+				return plySelection;
+			}
+		};
+	}
+
+	/**
+	 * Returns a sink which hands each converter's output to that converter's
+	 * sink. It must be used with a converter returned by {@link #converter()}.
+	 */
+	public PgnParser.ChessGameSink<Row> sink() {
+		final ImmutableList<Branch<?>> currentBranches = freeze();
+		return new PgnParser.ChessGameSink<Row>() {
+			@Override
+			public void accept(Row row) {
+				for (int i = 0; i < currentBranches.size(); i++) {
+					currentBranches.get(i).accept(row.outputs[i]);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns the registered converters, which can't be added to from now on.
+	 */
+	private ImmutableList<Branch<?>> freeze() {
+		if (frozenBranches == null) {
+			frozenBranches = ImmutableList.copyOf(branches);
+		}
+		return frozenBranches;
+	}
+
+	/**
+	 * A converter together with the sink that receives its output.
+	 */
+	private static class Branch<A> {
+		private final PgnParser.ChessGameConverter<A> converter;
+		private final PgnParser.ChessGameSink<? super A> sink;
+
+		private Branch(PgnParser.ChessGameConverter<A> converter,
+				PgnParser.ChessGameSink<? super A> sink) {
+			this.converter = checkNotNull(converter, "converter");
+			this.sink = checkNotNull(sink, "sink");
+		}
+
+		@SuppressWarnings("unchecked")
+		private void accept(Object output) {
+			// The output was generated by this branch's converter, so it has type A.
+			sink.accept((A) output);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Represents the tag pairs of a chess game, without any of its moves.
+ * See {@link PgnParser#parseHeaders(java.io.File)}.
+ */
+public class ChessGameHeader {
+	public final ImmutableMap<String, String> metadata;
+	public final long offset; // Where the game starts in the PGN file, in bytes.
+	// How many bytes the tag pairs take up, from the offset. This doesn't include the
+	// moves, so it is known before they are read; see PgnIndex#getLength for the game.
+	public final long length;
+
+	public ChessGameHeader(ImmutableMap<String, String> metadata, long offset, long length) {
+		checkArgument(offset >= 0, "offset must not be negative");
+		checkArgument(length >= 0, "length must not be negative");
+		this.metadata = checkNotNull(metadata, "metadata");
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * Returns the value for a tag, or null if the game doesn't have that tag.
+	 */
+	@Nullable public String get(String key) {
+		return metadata.get(key);
+	}
+
+	/**
+	 * Returns the value for a numeric tag such as "WhiteElo" or "PlyCount", or
+	 * null if the game doesn't have that tag or its value isn't a number.
+	 */
+	@Nullable public Integer getInteger(String key) {
+		String value = metadata.get(key);
+		if (value == null || value.isEmpty() || value.length() > 9) {
+			return null;
+		}
+		int result = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char digit = value.charAt(i);
+			if (digit < '0' || digit > '9') {
+				return null;
+			}
+			result = 10 * result + (digit - '0');
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other == null) {
+			return false;
+		}
+		if (getClass() != other.getClass()) {
+			return false;
+		}
+		final ChessGameHeader that = (ChessGameHeader) other;
+		return Objects.equal(this.metadata, that.metadata)
+				&& Objects.equal(this.offset, that.offset)
+				&& Objects.equal(this.length, that.length);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(this.metadata, this.offset, this.length);
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("metadata", metadata)
+				.add("offset", offset)
+				.add("length", length)
+				.toString();
+	}
+}
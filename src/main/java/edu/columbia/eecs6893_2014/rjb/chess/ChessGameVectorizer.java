@@ -1,5 +1,6 @@
 package edu.columbia.eecs6893_2014.rjb.chess;
 
+import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.RandomAccessSparseVector;
 
 import com.google.common.collect.ImmutableList;
@@ -11,7 +12,7 @@ import edu.columbia.eecs6893_2014.rjb.classifier.Vectorizer.Vector;
  * A class which turns instances of {@link ChessGame} into {@link Vector}s.
  */
 public abstract class ChessGameVectorizer extends Vectorizer<ChessGame>
-		implements PgnParser.ChessGameConverter<Vector> {
+		implements PgnParser.PlySelectingConverter<Vector> {
 
 	private final ImmutableList<String> categories =
 			ImmutableList.of("white", "black", "tie");
@@ -26,7 +27,35 @@ public abstract class ChessGameVectorizer extends Vectorizer<ChessGame>
 		return new Vector(getCategory(game), getVector(game));
 	}
 
-	private String getCategory(ChessGame game) {
+	/**
+	 * Returns a converter which turns games into vectors backed by arrays, rather
+	 * than sparse vectors; see {@link ChessGameFanOut#addMatrix(ChessGameVectorizer)}.
+	 */
+	public PgnParser.PlySelectingConverter<Vector> denseConverter() {
+		return new PgnParser.PlySelectingConverter<Vector>() {
+			@Override
+			public Vector convert(ChessGame game) {
+				return new Vector(getCategory(game),
+						new DenseVector(getFeatureValues(game), /* shallowCopy */ true));
+			}
+
+			@Override
+			public PlySelection getPlySelection() {
+				return ChessGameVectorizer.this.getPlySelection();
+			}
+		};
+	}
+
+	/**
+	 * Returns the values of a game's features, in the order of {@link #features()}.
+	 */
+	public double[] getFeatureValues(ChessGame game) {
+		double[] values = new double[features().size()];
+		writeFeatures(game, values, 0);
+		return values;
+	}
+
+	String getCategory(ChessGame game) {
 		return game.winner != null
 				? game.winner.toString().toLowerCase() : "tie";
 	}
@@ -37,14 +66,47 @@ public abstract class ChessGameVectorizer extends Vectorizer<ChessGame>
 	}
 
 	/**
-	 * Turns a game into a vector. The features of the vector should
+	 * Returns the board states used by {@link #getVector(ChessGame)}. By default
+	 * every board state is kept; subclasses which only look at a few plies should
+	 * select just those, for example with {@link #fromEnd(int)}.
+	 */
+	@Override
+	public PlySelection getPlySelection() {
+		return PlySelection.all();
+	}
+
+	/**
+	 * Turns a game into a vector. The features of the vector
 	 * match those returned by {@link #features()}.
 	 */
-	protected abstract RandomAccessSparseVector getVector(ChessGame game);
+	protected RandomAccessSparseVector getVector(ChessGame game) {
+		double[] values = getFeatureValues(game);
+		RandomAccessSparseVector vector =
+				new RandomAccessSparseVector(values.length, values.length);
+		for (int i = 0; i < values.length; i++) {
+			vector.set(i, values[i]);
+		}
+		return vector;
+	}
+
+	/**
+	 * Writes the values of a game's features into the array, starting at the offset.
+	 * The features should match those returned by {@link #features()}.
+	 */
+	protected abstract void writeFeatures(ChessGame game, double[] values, int offset);
+
+	/**
+	 * Returns the selection of the board returned by {@link #getBoard(ChessGame, int)}.
+	 */
+	protected static PlySelection fromEnd(int turnsFromLast) {
+		// Turns are counted from the board before the last one, so
+		// turnsFromLast is one less than the ply counted from the end.
+		return PlySelection.fromEnd(turnsFromLast + 1);
+	}
 
 	protected static ImmutableChessboard getBoard(ChessGame game, int turnsFromLast) {
-		int calculatedTurn = game.boardStates.size() - turnsFromLast;
+		int calculatedTurn = game.getPlyCount() - turnsFromLast;
 		int actualTurn = Math.max(calculatedTurn, 1);
-		return game.boardStates.get(actualTurn - 1);
+		return game.getBoardState(actualTurn - 1);
 	}
 }
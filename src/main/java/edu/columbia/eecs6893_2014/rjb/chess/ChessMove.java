@@ -15,6 +15,14 @@ import javax.annotation.Nullable;
  * Castling is represented as two {@link ChessMove}s.
  */
 public class ChessMove {
+	// A move can be packed into 16 bits; see pack(). Squares are numbered rank * 8 + file.
+	private static final int SQUARE_MASK = 0x3f;
+	private static final int DESTINATION_SHIFT = 6;
+	private static final int PROMOTION_SHIFT = 12;
+	private static final int PROMOTION_MASK = 0x7;
+	private static final int CAPTURE_FLAG = 1 << 15;
+	private static final ChessPieceType[] PROMOTION_TYPES = ChessPieceType.values();
+
 	final ChessPiece movingPiece; // The piece that is being moved.
 	final ChessboardCoordinates destination; // Where the piece is being moved to.
 	final boolean isChecking; // Whether the move puts the opponent in check.
@@ -37,7 +45,7 @@ public class ChessMove {
 	 *<p>
 	 * This returns a collection of moves because castling results in two moves.
 	 */
-	public static ImmutableCollection<ChessMove> parseSanMove(String sanMove, ChessPlayer player,
+	public static ImmutableCollection<ChessMove> parseSanMove(CharSequence sanMove, ChessPlayer player,
 			Chessboard currentBoard) {
 		StringBuffer sanMoveBuffer = new StringBuffer(sanMove);
 		if (isCastling(sanMoveBuffer)) {
@@ -47,6 +55,218 @@ public class ChessMove {
 		}
 	}
 
+	/**
+	 * Decodes a standard algebraic notation (SAN) move into a move packed by
+	 * {@link #pack(ChessMove)}, in a single forward scan of the characters, without
+	 * allocating. Castling is decoded as the king's move.
+	 *<p>
+	 * This accepts the same moves as {@link #parseSanMove(CharSequence, ChessPlayer,
+	 * Chessboard)}, but doesn't record whether the move checks the opponent.
+	 */
+	static short decodeSanMove(CharSequence sanMove, ChessPlayer player,
+			Chessboard currentBoard) {
+		int length = sanMove.length();
+		checkMove(length >= 2, "move is too short", sanMove);
+		int homeRank = (player == ChessPlayer.BLACK) ? 56 : 0;
+		if (sanMove.charAt(0) == 'O') {
+			return decodeCastling(sanMove, homeRank, currentBoard);
+		}
+
+		ChessPieceType type = ChessPieceType.PAWN; // Pawn moves do not include the abbreviation.
+		int position = 0;
+		switch (sanMove.charAt(0)) {
+			case 'K':
+				type = ChessPieceType.KING;
+				break;
+			case 'Q':
+				type = ChessPieceType.QUEEN;
+				break;
+			case 'R':
+				type = ChessPieceType.ROOK;
+				break;
+			case 'B':
+				type = ChessPieceType.BISHOP;
+				break;
+			case 'N':
+				type = ChessPieceType.KNIGHT;
+				break;
+			default:
+				position--;
+		}
+		position++;
+
+		// The destination is the last file and rank before any suffix; any file or rank
+		// before that disambiguates which piece is moving. For example: Nbd7, R1e2, Qh4xe1
+		int fromFile = -1;
+		int fromRank = -1;
+		int toFile = -1;
+		int toRank = -1;
+		boolean isCapture = false;
+		ChessPieceType promotion = null;
+		for (; position < length; position++) {
+			char character = sanMove.charAt(position);
+			if (character >= 'a' && character <= 'h') {
+				if (toFile >= 0 || toRank >= 0) {
+					checkMove(fromFile < 0 && fromRank < 0 && !isCapture, "unexpected file in move",
+							sanMove);
+					fromFile = toFile;
+					fromRank = toRank;
+					toRank = -1;
+				}
+				toFile = character - 'a';
+			} else if (character >= '1' && character <= '8') {
+				checkMove(toRank < 0, "unexpected rank in move", sanMove);
+				toRank = character - '1';
+			} else if (character == 'x') {
+				checkMove(!isCapture && fromFile < 0 && fromRank < 0, "unexpected \"x\"", sanMove);
+				fromFile = toFile;
+				fromRank = toRank;
+				toFile = -1;
+				toRank = -1;
+				isCapture = true;
+			} else if (character == '=') {
+				checkMove(type == ChessPieceType.PAWN, "only pawns can be promoted", sanMove);
+				checkMove(position + 1 < length, "promotion type missing", sanMove);
+				promotion = promotionType(sanMove.charAt(++position));
+			} else {
+				break;
+			}
+		}
+		checkSuffix(sanMove, position);
+		checkMove(toFile >= 0 && toRank >= 0, "destination missing from move", sanMove);
+
+		int destination = toRank * 8 + toFile;
+		int origin = currentBoard.getMovingPieceSquare(type, player, destination, fromRank,
+				fromFile, isCapture);
+		return pack(origin, destination, promotion, isCapture);
+	}
+
+	private static short decodeCastling(CharSequence sanMove, int homeRank,
+			Chessboard currentBoard) {
+		// "O-O" or "O-O-O", followed by an optional "+" or "#".
+		int position = 1;
+		int castles = 1;
+		while (position + 1 < sanMove.length() && sanMove.charAt(position) == '-'
+				&& sanMove.charAt(position + 1) == 'O') {
+			position += 2;
+			castles++;
+		}
+		checkMove(castles == 2 || castles == 3, "unexpected castling move", sanMove);
+		checkSuffix(sanMove, position);
+
+		int kingSquare = homeRank + 4;
+		int rookSquare = (castles == 3) ? homeRank : homeRank + 7;
+		ChessPiece king = checkNotNull(currentBoard.getPieceAtSquare(kingSquare),
+				"king not found");
+		checkState(king.getType() == ChessPieceType.KING,
+				"piece at expected king location is not a king");
+		ChessPiece rook = checkNotNull(currentBoard.getPieceAtSquare(rookSquare),
+				"rook not found");
+		checkState(rook.getType() == ChessPieceType.ROOK,
+				"piece at expected rook location is not a rook");
+		return pack(kingSquare, (castles == 3) ? kingSquare - 2 : kingSquare + 2,
+				/* promotion */ null, /* isCapture */ false);
+	}
+
+	/**
+	 * Like checkState(), but only builds the message if the check fails.
+	 */
+	private static void checkMove(boolean condition, String message, CharSequence sanMove) {
+		if (!condition) {
+			throw new IllegalStateException(message + ": " + sanMove);
+		}
+	}
+
+	/**
+	 * Checks that a move ends at the position, or with a "+" or "#" there.
+	 */
+	private static void checkSuffix(CharSequence sanMove, int position) {
+		int length = sanMove.length();
+		checkMove(position == length || (position == length - 1
+				&& (sanMove.charAt(position) == '+' || sanMove.charAt(position) == '#')),
+				"unexpected characters at the end of move", sanMove);
+	}
+
+	private static ChessPieceType promotionType(char abbreviation) {
+		switch (abbreviation) {
+			case 'Q':
+				return ChessPieceType.QUEEN;
+			case 'R':
+				return ChessPieceType.ROOK;
+			case 'B':
+				return ChessPieceType.BISHOP;
+			case 'N':
+				return ChessPieceType.KNIGHT;
+			default:
+				throw new IllegalStateException("promotion type invalid");
+		}
+	}
+
+	/**
+	 * Packs the first move returned by {@link #parseSanMove(CharSequence, ChessPlayer,
+	 * Chessboard)} into 16 bits: the origin square in bits 0-5, the destination
+	 * square in bits 6-11, the promotion (0 for none) in bits 12-14, and whether
+	 * the move is a capture in bit 15. Castling is packed as the king's move.
+	 *<p>
+	 * This must be called before the move is applied, while the moving piece
+	 * is still at its origin.
+	 */
+	static short pack(ChessMove move) {
+		return pack(move.movingPiece.getSquare(), move.destination.getSquare(), move.promotion,
+				move.isCapture);
+	}
+
+	/**
+	 * Packs a move from its parts; see {@link #pack(ChessMove)}.
+	 */
+	static short pack(int origin, int destination, @Nullable ChessPieceType promotion,
+			boolean isCapture) {
+		int packedMove = origin | (destination << DESTINATION_SHIFT);
+		if (promotion != null) {
+			packedMove |= (promotion.ordinal() + 1) << PROMOTION_SHIFT;
+		}
+		if (isCapture) {
+			packedMove |= CAPTURE_FLAG;
+		}
+		return (short) packedMove;
+	}
+
+	/**
+	 * Returns the origin square of a packed move.
+	 */
+	static int getOrigin(short packedMove) {
+		return packedMove & SQUARE_MASK;
+	}
+
+	/**
+	 * Returns the destination square of a packed move.
+	 */
+	static int getDestination(short packedMove) {
+		return (packedMove >> DESTINATION_SHIFT) & SQUARE_MASK;
+	}
+
+	/**
+	 * Returns the type a packed move promotes a pawn to, or null if it isn't a promotion.
+	 */
+	@Nullable static ChessPieceType getPromotion(short packedMove) {
+		int promotionCode = (packedMove >> PROMOTION_SHIFT) & PROMOTION_MASK;
+		return (promotionCode == 0) ? null : PROMOTION_TYPES[promotionCode - 1];
+	}
+
+	/**
+	 * Returns true if a packed move is a capture.
+	 */
+	static boolean isCapture(short packedMove) {
+		return (packedMove & CAPTURE_FLAG) != 0;
+	}
+
+	/**
+	 * Returns the square the piece is moving to, numbered rank * 8 + file.
+	 */
+	public int getDestinationSquare() {
+		return destination.getSquare();
+	}
+
 	/**
 	 * Checks for the "O" indicating castling.
 	 */
@@ -68,15 +288,15 @@ public class ChessMove {
 		int rank = (player == ChessPlayer.BLACK) ? 7 : 0;
 		ChessboardCoordinates kingStart, kingEnd, rookStart, rookEnd;
 		if (sanMoveBuffer.toString().equals("O-O-O")) {
-			kingStart = new ChessboardCoordinates(rank, 4);
-			kingEnd = new ChessboardCoordinates(rank, 2);
-			rookStart = new ChessboardCoordinates(rank, 0);
-			rookEnd = new ChessboardCoordinates(rank, 3);
+			kingStart = ChessboardCoordinates.of(rank, 4);
+			kingEnd = ChessboardCoordinates.of(rank, 2);
+			rookStart = ChessboardCoordinates.of(rank, 0);
+			rookEnd = ChessboardCoordinates.of(rank, 3);
 		} else if (sanMoveBuffer.toString().equals("O-O")) {
-			kingStart = new ChessboardCoordinates(rank, 4);
-			kingEnd = new ChessboardCoordinates(rank, 6);
-			rookStart = new ChessboardCoordinates(rank, 7);
-			rookEnd = new ChessboardCoordinates(rank, 5);
+			kingStart = ChessboardCoordinates.of(rank, 4);
+			kingEnd = ChessboardCoordinates.of(rank, 6);
+			rookStart = ChessboardCoordinates.of(rank, 7);
+			rookEnd = ChessboardCoordinates.of(rank, 5);
 		} else {
 			throw new IllegalStateException("unexpected content in sanMoveBuffer: " + sanMoveBuffer);
 		}
@@ -258,11 +478,9 @@ public class ChessMove {
 	 */
 	private static ChessboardCoordinates handleDestination(StringBuffer sanMoveBuffer) {
 		// Moves contain the destination in standard (file, rank) form, for example: e6
-		String file = sanMoveBuffer.substring(sanMoveBuffer.length() - 2,
-				sanMoveBuffer.length() - 1);
-		String rank = sanMoveBuffer.substring(sanMoveBuffer.length() - 1,
-				sanMoveBuffer.length());
-		ChessboardCoordinates destination = new ChessboardCoordinates(rank, file);
+		ChessboardCoordinates destination = ChessboardCoordinates.parse(
+				sanMoveBuffer.charAt(sanMoveBuffer.length() - 2),
+				sanMoveBuffer.charAt(sanMoveBuffer.length() - 1));
 		sanMoveBuffer.delete(sanMoveBuffer.length() - 2, sanMoveBuffer.length());
 		return destination;
 	}
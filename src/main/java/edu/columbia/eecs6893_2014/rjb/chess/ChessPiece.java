@@ -25,7 +25,7 @@ public class ChessPiece {
 	public ChessPiece(ChessPieceType type, ChessPlayer owner, int rank, int file) {
 		this.type = checkNotNull(type, "type");
 		this.owner = checkNotNull(owner, "owner");
-		this.position = new ChessboardCoordinates(rank, file);
+		this.position = ChessboardCoordinates.of(rank, file);
 	}	
 
 	public ChessPieceType getType() {
@@ -37,10 +37,24 @@ public class ChessPiece {
 		this.type = checkNotNull(type, "type");
 	}
 
+	/**
+	 * Turns a promoted piece back into a pawn; see {@link Chessboard#unmakeMove()}.
+	 */
+	void unpromote() {
+		this.type = ChessPieceType.PAWN;
+	}
+
 	public ChessboardCoordinates getPosition() {
 		return position;
 	}
 
+	/**
+	 * Returns the square of this piece's position, numbered rank * 8 + file.
+	 */
+	public int getSquare() {
+		return position.getSquare();
+	}
+
 	public void setPosition(ChessboardCoordinates position) {
 		this.position = checkNotNull(position, "position");
 	}
@@ -6,11 +6,15 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * Represents a type of piece in chess.
  */
 public enum ChessPieceType {
-	KING("K"), QUEEN("Q"), ROOK("R"), BISHOP("B"), KNIGHT("N"), PAWN("P");
+	// If this were a minimax algorithm, we'd want the king to have an infinite value,
+	// but since we only look at the current state, we use its "combat value".
+	KING("K", 4), QUEEN("Q", 9), ROOK("R", 5), BISHOP("B", 3), KNIGHT("N", 3), PAWN("P", 1);
 
 	public final String abbreviation;
+	public final int value; // The material value of a piece of this type, in pawns.
 
-	private ChessPieceType(String abbreviation) {
+	private ChessPieceType(String abbreviation, int value) {
 		this.abbreviation = checkNotNull(abbreviation, "abbreviation");
+		this.value = value;
 	}
 }
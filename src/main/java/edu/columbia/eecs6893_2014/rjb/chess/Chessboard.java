@@ -1,31 +1,119 @@
 package edu.columbia.eecs6893_2014.rjb.chess;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
+import com.google.common.base.Objects;
+import com.google.common.collect.UnmodifiableIterator;
+import com.google.common.primitives.Longs;
 
 import javax.annotation.Nullable;
 
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.List;
-import java.util.ListIterator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
  * Represents a mutable chessboard state.
+ *<p>
+ * Besides the set of pieces, the board is indexed by bitboards: one {@code long} per
+ * piece type and owner, with bit {@code rank * 8 + file} set for each square holding
+ * such a piece, plus occupancy masks and a piece per square. Move replay and threat
+ * queries work on these with bit operations and {@link AttackTables} lookups,
+ * without allocating.
+ *<p>
+ * The board also tracks the side to move, castling rights and the en passant file,
+ * and keeps a Zobrist key of the position up to date; see {@link #getZobristKey()}.
+ *<p>
+ * Pieces on a board should only be moved through {@link #acceptMove(ChessMove)} or
+ * the packed move methods such as {@link #makeMove(short)}, which keep the index up
+ * to date. {@link ImmutableChessboard} snapshots don't have an index; they store
+ * their squares packed and decode them when queried.
  */
 public class Chessboard {
-	// All of the pieces on this board.
-	// Note that it is mutable, as are the pieces therein.
-	protected final Set<ChessPiece> pieces;
+	static final int SQUARES = 64;
+	static final int BITBOARDS = 2 * ChessPieceType.values().length;
+	// Placements copied by copyPlacementTo() also hold the state of the position.
+	static final int PLACEMENT_LENGTH = SQUARES + 2;
+
+	// Castling rights, as bits. A right is lost once the king or that rook moves,
+	// or the rook is captured.
+	static final int WHITE_KINGSIDE = 1;
+	static final int WHITE_QUEENSIDE = 2;
+	static final int BLACK_KINGSIDE = 4;
+	static final int BLACK_QUEENSIDE = 8;
+	// The castling rights lost by a move from or to each square.
+	private static final int[] CASTLING_RIGHTS_LOST = new int[SQUARES];
+
+	// The piece counts and material of a board are packed into a long: four bits for the
+	// number of pieces with each bitboard index (at most ten in a legal position), then
+	// a byte of material for each player.
+	private static final int COUNT_BITS = 4;
+	private static final int MATERIAL_SHIFT = BITBOARDS * COUNT_BITS;
+	private static final int MATERIAL_BITS = 8;
+	// What placing a piece with each bitboard index adds to the packed counts.
+	private static final long[] COUNT_INCREMENTS = new long[BITBOARDS];
+
+	static {
+		for (ChessPlayer owner : ChessPlayer.values()) {
+			for (ChessPieceType type : ChessPieceType.values()) {
+				int index = bitboardIndex(type, owner);
+				COUNT_INCREMENTS[index] = (1L << (COUNT_BITS * index))
+						+ ((long) type.value << (MATERIAL_SHIFT + MATERIAL_BITS * owner.ordinal()));
+			}
+		}
+
+		CASTLING_RIGHTS_LOST[0] = WHITE_QUEENSIDE;
+		CASTLING_RIGHTS_LOST[4] = WHITE_KINGSIDE | WHITE_QUEENSIDE;
+		CASTLING_RIGHTS_LOST[7] = WHITE_KINGSIDE;
+		CASTLING_RIGHTS_LOST[56] = BLACK_QUEENSIDE;
+		CASTLING_RIGHTS_LOST[60] = BLACK_KINGSIDE | BLACK_QUEENSIDE;
+		CASTLING_RIGHTS_LOST[63] = BLACK_KINGSIDE;
+	}
+
+	private static final int[] NO_UNDO_RECORDS = new int[0];
+	private static final ChessPiece[] NO_CAPTURED_PIECES = new ChessPiece[0];
+
+	// A read-only view of all of the pieces on this board, backed by the squares below.
+	// Note that the pieces therein are mutable.
+	// This and the rest of the index are null for ImmutableChessboard.
+	private final Set<ChessPiece> pieces;
+
+	// One bitboard per piece type and owner; see bitboardIndex().
+	private final long[] bitboards;
+	// The squares occupied by each player's pieces, and by any piece.
+	private final long[] playerOccupancy;
+	private long occupancy = 0;
+	// The piece on each square, or null.
+	private final ChessPiece[] squares;
+	// The Zobrist key of the pieces alone; see getZobristKey().
+	private long placementKey = 0;
+	// The packed piece counts and material; see getPieceCount() and getMaterial().
+	private long pieceCounts = 0;
+
+	private ChessPlayer sideToMove;
+	private int castlingRights;
+	private int enPassantFile; // -1 unless the last move was a pawn moving two squares.
+
+	// The moves made by makeMove() which may be unmade, as undo records (see makeMove())
+	// and the pieces they captured. These start out as shared empty arrays, so that
+	// snapshots don't carry stacks of their own.
+	private int[] undoRecords = NO_UNDO_RECORDS;
+	private ChessPiece[] capturedPieces = NO_CAPTURED_PIECES;
+	private int undoCount = 0;
 
 	/**
 	 * Constructs a chessboard with all pieces in their starting positions.
 	 */
 	public Chessboard() {
+		this(startingPieces());
+	}
+
+	private static Set<ChessPiece> startingPieces() {
 		HashSet<ChessPiece> pieces = new HashSet<ChessPiece>();
 		pieces.add(new ChessPiece(ChessPieceType.ROOK, ChessPlayer.BLACK, 7, 0));
 		pieces.add(new ChessPiece(ChessPieceType.KNIGHT, ChessPlayer.BLACK, 7, 1));
@@ -59,347 +147,458 @@ public class Chessboard {
 		pieces.add(new ChessPiece(ChessPieceType.BISHOP, ChessPlayer.WHITE, 0 , 5));
 		pieces.add(new ChessPiece(ChessPieceType.KNIGHT, ChessPlayer.WHITE, 0 , 6));
 		pieces.add(new ChessPiece(ChessPieceType.ROOK, ChessPlayer.WHITE, 0 , 7));
-		this.pieces = pieces;
+		return pieces;
 	}
 
 	/**
-	 * Constructs a chessboard with a specific set of pieces.
+	 * Constructs a chessboard with a specific set of pieces, with white to move. Castling
+	 * rights are assumed for each king and rook still on their starting squares.
 	 */
 	Chessboard(Set<ChessPiece> pieces) {
-		this.pieces = checkNotNull(pieces, "pieces");
+		this(pieces, ChessPlayer.WHITE, /* castlingRights */ 0, /* enPassantFile */ -1);
+		this.castlingRights = getUnmovedCastlingRights();
 	}
 
-	public Set<? extends ChessPiece> getPieces() {
-		return pieces;
+	/**
+	 * Constructs a chessboard with a specific set of pieces and state.
+	 */
+	Chessboard(Iterable<? extends ChessPiece> pieces, ChessPlayer sideToMove,
+			int castlingRights, int enPassantFile) {
+		this(new long[BITBOARDS], new long[2], new ChessPiece[SQUARES], sideToMove,
+				castlingRights, enPassantFile);
+		for (ChessPiece piece : checkNotNull(pieces, "pieces")) {
+			int square = piece.getSquare();
+			checkArgument(square >= 0, "piece is not on the board: %s", piece);
+			checkArgument(squares[square] == null, "two pieces on the same square: %s", piece);
+			place(piece, square);
+		}
 	}
 
 	/**
-	 * Returns the piece at the given coordinates. Returns null if there is
-	 * no piece at the coordinates, or the coordinates are invalid.
+	 * Constructs a chessboard with the pieces of the given bitboards, which are decoded
+	 * into instances of {@link ImmutableChessPiece}; see {@link ImmutableChessboard}.
 	 */
-	@Nullable public ChessPiece getPieceAtCoordinates(ChessboardCoordinates coordinates) {
-		for (ChessPiece piece : pieces) {
-			if (piece.getPosition().equals(coordinates)) {
-				return piece;
+	Chessboard(long[] bitboards, ChessPlayer sideToMove, int castlingRights,
+			int enPassantFile) {
+		this(new long[BITBOARDS], new long[2], new ChessPiece[SQUARES], sideToMove,
+				castlingRights, enPassantFile);
+		checkArgument(bitboards.length == BITBOARDS, "wrong number of bitboards");
+		for (int index = 0; index < BITBOARDS; index++) {
+			for (long remaining = bitboards[index]; remaining != 0; remaining &= remaining - 1) {
+				int square = Long.numberOfTrailingZeros(remaining);
+				checkArgument(squares[square] == null, "two pieces on the same square");
+				place(ImmutableChessPiece.of(index, square), square);
 			}
 		}
-		return null;
 	}
 
 	/**
-	 * This method takes in a parsed SAN move (see
-	 * {@link ChessMove#parseSanMove(String, ChessPlayer, Chessboard)})
-	 * and returns the {@link ChessPiece} on this board that the move refers to.
+	 * Constructs a mutable copy of a board, such as an {@link ImmutableChessboard}.
 	 */
-	public ChessPiece getMovingPiece(ChessPieceType type, ChessPlayer player,
-			ChessboardCoordinates destination, @Nullable Integer optionalRank,
-			@Nullable Integer optionalFile, boolean isCapture) {
-
-		// Generate a naive list of pieces which could move to
-		// the specified destination:
-		List<ChessPiece> possiblePieces;
-		switch (type) {
-			case KING:
-				possiblePieces = getPossibleKings(player, destination);
-				break;
-			case QUEEN:
-				possiblePieces = getPossibleQueens(player, destination);
-				break;
-			case ROOK:
-				possiblePieces = getPossibleRooks(player, destination);
-				break;
-			case BISHOP:
-				possiblePieces = getPossibleBishops(player, destination);
-				break;
-			case KNIGHT:
-				possiblePieces = getPossibleKnights(player, destination);
-				break;
-			case PAWN:
-				possiblePieces = getPossiblePawns(player, destination, isCapture);
-				break;
-			default:
-				throw new IllegalArgumentException("unexpected type: " + type);
-		}
-
-		// Filter out pieces using the optional rank and optional file:
-		possiblePieces = Lists.newArrayList(possiblePieces);
-		ListIterator<ChessPiece> iterator = possiblePieces.listIterator();
-		while (iterator.hasNext()) {
-			ChessPiece next = iterator.next();
-			ChessboardCoordinates position = next.getPosition();
-			if (optionalRank != null && optionalRank != position.rank) {
-				iterator.remove();
-			} else if (optionalFile != null && optionalFile != position.file) {
-				iterator.remove();
-			} else {
-				// Do nothing, the piece fits the optional constraints.
+	Chessboard(Chessboard board) {
+		this(new long[BITBOARDS], new long[2], new ChessPiece[SQUARES], board.getSideToMove(),
+				board.getCastlingRights(), board.getEnPassantFile());
+		for (int square = 0; square < SQUARES; square++) {
+			ChessPiece piece = board.getPieceAtSquare(square);
+			if (piece != null) {
+				place(new ChessPiece(piece.getType(), piece.owner, square / 8, square % 8), square);
 			}
 		}
+	}
 
-		// Normally, when multiple pieces with the correct owner and type can move
-		// to the destination tile, the optional rank or file is used to disambiguate.
-		// (That is what we handled in the check of code right above this one.)
-		// However, an optional rank or file is not the only way to disambiguate.
-		// If a player moving a piece would put their own king in check, then that
-		// move is not valid.
-		if (possiblePieces.size() > 1) {
-			iterator = possiblePieces.listIterator();
-			while (iterator.hasNext()) {
-				ChessPiece next = iterator.next();
-
-				// Save the current board state.
-				ChessPiece captured = null;
-				ChessboardCoordinates nextOriginalPosition = next.getPosition();
-				if (isCapture) {
-					captured = getPieceAtCoordinates(destination);
-				}
+	/**
+	 * Constructs a chessboard without an index, for {@link ImmutableChessboard}, which
+	 * overrides every method that reads the pieces.
+	 */
+	Chessboard(ChessPlayer sideToMove, int castlingRights, int enPassantFile,
+			long placementKey, long pieceCounts) {
+		this(/* bitboards */ null, /* playerOccupancy */ null, /* squares */ null,
+				sideToMove, castlingRights, enPassantFile);
+		this.placementKey = placementKey;
+		this.pieceCounts = pieceCounts;
+	}
 
-				// Temporarily change the board state.
-				if (isCapture) {
-					pieces.remove(captured);
-				}
-				next.setPosition(destination);
+	private Chessboard(long[] bitboards, long[] playerOccupancy, ChessPiece[] squares,
+			ChessPlayer sideToMove, int castlingRights, int enPassantFile) {
+		this.pieces = (squares == null) ? null : new PieceSet();
+		this.bitboards = bitboards;
+		this.playerOccupancy = playerOccupancy;
+		this.squares = squares;
+		this.sideToMove = checkNotNull(sideToMove, "sideToMove");
+		checkArgument(castlingRights >= 0 && castlingRights <= 0xf, "invalid castling rights");
+		checkArgument(enPassantFile >= -1 && enPassantFile <= 7, "invalid en passant file");
+		this.castlingRights = castlingRights;
+		this.enPassantFile = enPassantFile;
+	}
+
+	/**
+	 * Returns the castling rights for which the king and rook are on their starting squares.
+	 */
+	private int getUnmovedCastlingRights() {
+		return getUnmovedCastlingRights(bitboards);
+	}
+
+	static int getUnmovedCastlingRights(long[] bitboards) {
+		int rights = 0;
+		long whiteKing = bitboards[bitboardIndex(ChessPieceType.KING, ChessPlayer.WHITE)];
+		long whiteRooks = bitboards[bitboardIndex(ChessPieceType.ROOK, ChessPlayer.WHITE)];
+		long blackKing = bitboards[bitboardIndex(ChessPieceType.KING, ChessPlayer.BLACK)];
+		long blackRooks = bitboards[bitboardIndex(ChessPieceType.ROOK, ChessPlayer.BLACK)];
+		if ((whiteKing & (1L << 4)) != 0) {
+			rights |= ((whiteRooks & (1L << 7)) != 0) ? WHITE_KINGSIDE : 0;
+			rights |= ((whiteRooks & (1L << 0)) != 0) ? WHITE_QUEENSIDE : 0;
+		}
+		if ((blackKing & (1L << 60)) != 0) {
+			rights |= ((blackRooks & (1L << 63)) != 0) ? BLACK_KINGSIDE : 0;
+			rights |= ((blackRooks & (1L << 56)) != 0) ? BLACK_QUEENSIDE : 0;
+		}
+		return rights;
+	}
 
-				// Test whether the king would be in check.
-				boolean kingIsInCheck = isKingInCheck(player);
+	public Set<? extends ChessPiece> getPieces() {
+		return pieces;
+	}
 
-				// Roll back to the original board state.
-				next.setPosition(nextOriginalPosition);
-				if (isCapture) {
-					pieces.add(captured);
+	/**
+	 * The pieces on the board, in order of their squares.
+	 */
+	private class PieceSet extends AbstractSet<ChessPiece> {
+		@Override
+		public Iterator<ChessPiece> iterator() {
+			return new UnmodifiableIterator<ChessPiece>() {
+				private long remaining = occupancy;
+
+				@Override
+				public boolean hasNext() {
+					return remaining != 0;
 				}
 
-				// If the king was going to be in check,
-				// this move is not actually valid.
-				if (kingIsInCheck) {
-					iterator.remove();
+				@Override
+				public ChessPiece next() {
+					if (remaining == 0) {
+						throw new NoSuchElementException();
+					}
+					ChessPiece piece = squares[Long.numberOfTrailingZeros(remaining)];
+					remaining &= remaining - 1;
+					return piece;
 				}
+			};
+		}
+
+		@Override
+		public boolean contains(Object object) {
+			if (!(object instanceof ChessPiece)) {
+				return false;
 			}
+			int square = ((ChessPiece) object).getSquare();
+			return square >= 0 && squares[square] == object;
 		}
 
-		// Do some final sanity checks and return the moving piece:
-		checkState(possiblePieces.size() != 0, "no possible pieces found");
-		checkState(possiblePieces.size() == 1, "more than one possible piece found");
-		checkState(possiblePieces.get(0).getType() == type, "found piece of wrong type");
-		checkState(possiblePieces.get(0).owner == player, "found piece with wrong owner");
-		return possiblePieces.get(0);
+		@Override
+		public int size() {
+			return Long.bitCount(occupancy);
+		}
 	}
 
 	/**
-	 * Returns true of the specified player's king is in check.
+	 * Returns the 64-bit Zobrist key of this position: its pieces, the side to move,
+	 * castling rights and en passant file. Equal positions have equal keys, and
+	 * different positions almost certainly have different keys.
+	 *<p>
+	 * The key is updated as moves are applied, so this takes constant time.
 	 */
-	public boolean isKingInCheck(ChessPlayer kingOwner) {
-		ChessPiece king = null;
-		for (ChessPiece piece : pieces) {
-			if (piece.getType() == ChessPieceType.KING && piece.owner == kingOwner) {
-				king = piece;
-			}
-		}
-		checkNotNull(king, "king should not be null");
-		ChessPlayer otherPlayer = (king.owner == ChessPlayer.BLACK)
-				? ChessPlayer.WHITE
-				: ChessPlayer.BLACK;
-		return isLocationThreatenedBy(king.getPosition(), otherPlayer);
+	public long getZobristKey() {
+		return placementKey ^ ZobristKeys.state(sideToMove, castlingRights, enPassantFile);
 	}
 
 	/**
-	 * Returns true of the specified location is threatened by the other player.
+	 * Returns the Zobrist key of the pieces alone, which ignores the rest of the state.
 	 */
-	public boolean isLocationThreatenedBy(ChessboardCoordinates location, ChessPlayer player) {
-		List<ChessPiece> possiblePieces = ImmutableList.<ChessPiece>builder()
-				.addAll(getPossibleKings(player, location))
-				.addAll(getPossibleQueens(player, location))
-				.addAll(getPossibleRooks(player, location))
-				.addAll(getPossibleBishops(player, location))
-				.addAll(getPossibleKnights(player, location))
-				.addAll(getPossiblePawns(player, location, /* isCapture */ true))
-				.build();
-		return !possiblePieces.isEmpty();
+	long getPlacementKey() {
+		return placementKey;
+	}
+
+	/**
+	 * Returns the player who moves next; only known if the moves were applied
+	 * to this board, as opposed to a board constructed with a set of pieces.
+	 */
+	public ChessPlayer getSideToMove() {
+		return sideToMove;
+	}
+
+	/**
+	 * Returns the castling rights; see {@link #WHITE_KINGSIDE} and the other bits.
+	 */
+	int getCastlingRights() {
+		return castlingRights;
+	}
+
+	/**
+	 * Returns the file of a pawn which just moved two squares, or -1 if there is none.
+	 */
+	int getEnPassantFile() {
+		return enPassantFile;
 	}
 
 	/**
-	 * Returns all the kings owned by the specified player that can reach the specified tile.
+	 * Returns the number of the player's pieces of the given type on the board.
+	 * This is kept up to date as pieces move, so it doesn't look at the pieces.
 	 */
-	private List<ChessPiece> getPossibleKings(ChessPlayer player, ChessboardCoordinates destination) {
-		List<ChessboardCoordinates> possiblePositions = ImmutableList.of(
-				new ChessboardCoordinates(destination.rank + 1, destination.file - 1),
-				new ChessboardCoordinates(destination.rank + 1, destination.file),
-				new ChessboardCoordinates(destination.rank + 1, destination.file + 1),
-				new ChessboardCoordinates(destination.rank, destination.file - 1),
-				new ChessboardCoordinates(destination.rank, destination.file + 1),
-				new ChessboardCoordinates(destination.rank - 1, destination.file - 1),
-				new ChessboardCoordinates(destination.rank - 1, destination.file),
-				new ChessboardCoordinates(destination.rank - 1, destination.file + 1));
-		return filterPieces(getAllPieces(possiblePositions), ChessPieceType.KING, player);
+	public int getPieceCount(ChessPieceType type, ChessPlayer owner) {
+		return (int) (pieceCounts >>> (COUNT_BITS * bitboardIndex(type, owner)))
+				& ((1 << COUNT_BITS) - 1);
 	}
 
 	/**
-	 * Returns all the queens owned by the specified player that can reach the specified tile.
+	 * Returns the total {@link ChessPieceType#value} of the player's pieces on the board.
 	 */
-	private List<ChessPiece> getPossibleQueens(ChessPlayer player, ChessboardCoordinates destination) {
-		List<ChessPiece> possiblePieces = ImmutableList.<ChessPiece>builder()
-				.addAll(getClosestSraightPieces(destination))
-				.addAll(getClosestDiagonalPieces(destination))
-				.build();
-		return filterPieces(possiblePieces, ChessPieceType.QUEEN, player);
+	public int getMaterial(ChessPlayer player) {
+		return (int) (pieceCounts >>> (MATERIAL_SHIFT + MATERIAL_BITS * player.ordinal()))
+				& ((1 << MATERIAL_BITS) - 1);
 	}
 
 	/**
-	 * Returns all the rooks owned by the specified player that can reach the specified tile.
+	 * Returns the packed piece counts and material of the pieces on the given bitboards.
 	 */
-	private List<ChessPiece> getPossibleRooks(ChessPlayer player, ChessboardCoordinates destination) {
-		List<ChessPiece> possiblePieces = ImmutableList.<ChessPiece>builder()
-				.addAll(getClosestSraightPieces(destination))
-				.build();
-		return filterPieces(possiblePieces, ChessPieceType.ROOK, player);
+	static long countPieces(long[] bitboards) {
+		long pieceCounts = 0;
+		for (int index = 0; index < BITBOARDS; index++) {
+			pieceCounts += Long.bitCount(bitboards[index]) * COUNT_INCREMENTS[index];
+		}
+		return pieceCounts;
 	}
 
 	/**
-	 * Returns all the bishops owned by the specified player that can reach the specified tile.
+	 * Returns the piece at the given coordinates. Returns null if there is
+	 * no piece at the coordinates, or the coordinates are invalid.
 	 */
-	private List<ChessPiece> getPossibleBishops(ChessPlayer player,
-			ChessboardCoordinates destination) {
-		List<ChessPiece> possiblePieces = ImmutableList.<ChessPiece>builder()
-				.addAll(getClosestDiagonalPieces(destination))
-				.build();
-		return filterPieces(possiblePieces, ChessPieceType.BISHOP, player);
+	@Nullable public ChessPiece getPieceAtCoordinates(ChessboardCoordinates coordinates) {
+		int square = coordinates.getSquare();
+		return (square < 0) ? null : getPieceAtSquare(square);
 	}
 
 	/**
-	 * Returns all the knights owned by the specified player that can reach the specified tile.
+	 * Returns the piece on the square numbered rank * 8 + file, or null if there is none.
 	 */
-	private List<ChessPiece> getPossibleKnights(ChessPlayer player,
-			ChessboardCoordinates destination) {
-		List<ChessboardCoordinates> possiblePositions = ImmutableList.of(
-				new ChessboardCoordinates(destination.rank - 2, destination.file - 1),
-				new ChessboardCoordinates(destination.rank - 2, destination.file + 1),
-				new ChessboardCoordinates(destination.rank + 2, destination.file - 1),
-				new ChessboardCoordinates(destination.rank + 2, destination.file + 1),
-				new ChessboardCoordinates(destination.rank - 1, destination.file - 2),
-				new ChessboardCoordinates(destination.rank + 1, destination.file - 2),
-				new ChessboardCoordinates(destination.rank - 1, destination.file + 2),
-				new ChessboardCoordinates(destination.rank + 1, destination.file + 2));
-		return filterPieces(getAllPieces(possiblePositions), ChessPieceType.KNIGHT, player);
+	@Nullable public ChessPiece getPieceAtSquare(int square) {
+		checkArgument(square >= 0 && square < SQUARES, "square is not on the board");
+		return squares[square];
 	}
 
 	/**
-	 * Returns all the pawns owned by the specified player that can reach the specified tile.
+	 * This method takes in a parsed SAN move (see
+	 * {@link ChessMove#parseSanMove(CharSequence, ChessPlayer, Chessboard)})
+	 * and returns the {@link ChessPiece} on this board that the move refers to.
 	 */
-	private List<ChessPiece> getPossiblePawns(ChessPlayer player,
-			ChessboardCoordinates destination, boolean isCapture) {
-		// Pawns can only move forward; determine which way is forward for this player.
-		int oneRankBackwards = (player == ChessPlayer.BLACK) ? 1 : -1;
-		ImmutableList.Builder<ChessboardCoordinates> possiblePositions = ImmutableList.builder();
-		if (isCapture) {
-			// For captures, pawns move diagonally.
-			possiblePositions.add(new ChessboardCoordinates(
-					destination.rank + oneRankBackwards, destination.file + 1));
-			possiblePositions.add(new ChessboardCoordinates(
-					destination.rank + oneRankBackwards, destination.file - 1));
-			return filterPieces(getAllPieces(possiblePositions.build()), ChessPieceType.PAWN, player);
+	public ChessPiece getMovingPiece(ChessPieceType type, ChessPlayer player,
+			ChessboardCoordinates destination, @Nullable Integer optionalRank,
+			@Nullable Integer optionalFile, boolean isCapture) {
+		int destinationSquare = destination.getSquare();
+		checkArgument(destinationSquare >= 0, "destination is not on the board");
+		ChessPiece piece = getPieceAtSquare(getMovingPieceSquare(type, player, destinationSquare,
+				(optionalRank == null) ? -1 : optionalRank,
+				(optionalFile == null) ? -1 : optionalFile, isCapture));
+		checkState(piece.getType() == type, "found piece of wrong type");
+		checkState(piece.owner == player, "found piece with wrong owner");
+		return piece;
+	}
+
+	/**
+	 * Like {@link #getMovingPiece}, but returns the square of the moving piece, and
+	 * takes -1 for a disambiguating rank or file which isn't given.
+	 */
+	int getMovingPieceSquare(ChessPieceType type, ChessPlayer player, int destinationSquare,
+			int optionalRank, int optionalFile, boolean isCapture) {
+		return getMovingPieceSquare(bitboards, occupancy, type, player, destinationSquare,
+				optionalRank, optionalFile, isCapture);
+	}
+
+	/**
+	 * Returns the square of the moving piece given the board's bitboards, indexed by
+	 * {@link #bitboardIndex}, and its occupied squares; see
+	 * {@link #getMovingPieceSquare(ChessPieceType, ChessPlayer, int, int, int, boolean)}.
+	 */
+	static int getMovingPieceSquare(long[] bitboards, long occupancy, ChessPieceType type,
+			ChessPlayer player, int destinationSquare, int optionalRank, int optionalFile,
+			boolean isCapture) {
+		// Find the pieces with the correct owner and type which could move
+		// to the specified destination:
+		long possiblePieces;
+		if (type == ChessPieceType.PAWN && !isCapture) {
+			possiblePieces = getPossiblePawnPushes(bitboards, player, destinationSquare);
 		} else {
-			// For non-captures, pawns move straight.
-			possiblePositions.add(new ChessboardCoordinates(
-					destination.rank + oneRankBackwards, destination.file));
-			possiblePositions.add(new ChessboardCoordinates(
-					destination.rank + 2 * oneRankBackwards, destination.file));
-			List<ChessPiece> possiblePieces = Lists.newArrayList(
-					filterPieces(getAllPieces(possiblePositions.build()), ChessPieceType.PAWN, player));
-
-			// Handle the case where one pawn is right in front of another,
-			// by removing the piece further back.
-			if (possiblePieces.size() > 1) {
-				checkState(possiblePieces.size() == 2,
-						"should only be possible to have two pawns here");
-				if (possiblePieces.get(0).getPosition().rank ==
-						destination.rank + 2 * oneRankBackwards) {
-					possiblePieces.remove(0);
-				} else {
-					possiblePieces.remove(1);
+			possiblePieces = getAttackers(bitboards, destinationSquare, player, type, occupancy);
+		}
+
+		// Filter out pieces using the optional rank and optional file:
+		if (optionalRank >= 0) {
+			possiblePieces &= 0xffL << (8 * optionalRank);
+		}
+		if (optionalFile >= 0) {
+			possiblePieces &= AttackTables.FILE_A << optionalFile;
+		}
+
+		// Normally, when multiple pieces with the correct owner and type can move
+		// to the destination tile, the optional rank or file is used to disambiguate.
+		// (That is what we handled in the check of code right above this one.)
+		// However, an optional rank or file is not the only way to disambiguate.
+		// If a player moving a piece would put their own king in check, then that
+		// move is not valid.
+		if (Long.bitCount(possiblePieces) > 1) {
+			long destinationBit = 1L << destinationSquare;
+			long captured = isCapture ? destinationBit : 0;
+			for (long remaining = possiblePieces; remaining != 0; remaining &= remaining - 1) {
+				long originBit = Long.lowestOneBit(remaining);
+				long occupiedAfterMove = (occupancy & ~originBit) | destinationBit;
+				long king = bitboards[bitboardIndex(ChessPieceType.KING, player)];
+				int kingSquare = (type == ChessPieceType.KING)
+						? destinationSquare : Long.numberOfTrailingZeros(king);
+				if (isAttacked(bitboards, kingSquare, other(player), occupiedAfterMove, captured)) {
+					possiblePieces &= ~originBit;
 				}
 			}
-
-			return ImmutableList.copyOf(possiblePieces);
 		}
 
+		// Do some final sanity checks and return the moving piece's square:
+		checkState(possiblePieces != 0, "no possible pieces found");
+		checkState(Long.bitCount(possiblePieces) == 1, "more than one possible piece found");
+		return Long.numberOfTrailingZeros(possiblePieces);
 	}
 
 	/**
-	 * Returns the closest pieces to a tile, moving straight.
+	 * Returns true of the specified player's king is in check.
 	 */
-	private List<ChessPiece> getClosestSraightPieces(ChessboardCoordinates position) {
-		return ImmutableList.<ChessPiece>builder()
-				.addAll(getClosestPieceInDirection(position, -1, 0))
-				.addAll(getClosestPieceInDirection(position, 1, 0))
-				.addAll(getClosestPieceInDirection(position, 0, -1))
-				.addAll(getClosestPieceInDirection(position, 0, 1))
-				.build();
+	public boolean isKingInCheck(ChessPlayer kingOwner) {
+		long king = bitboards[bitboardIndex(ChessPieceType.KING, kingOwner)];
+		checkState(king != 0, "king should not be null");
+		return isAttacked(bitboards, Long.numberOfTrailingZeros(king), other(kingOwner),
+				occupancy, /* captured */ 0);
 	}
 
 	/**
-	 * Returns the closest pieces to a tile, moving diagonally.
+	 * Returns true if the side to move is in check; false if it has no king.
 	 */
-	private List<ChessPiece> getClosestDiagonalPieces(ChessboardCoordinates position) {
-		return ImmutableList.<ChessPiece>builder()
-				.addAll(getClosestPieceInDirection(position, -1, -1))
-				.addAll(getClosestPieceInDirection(position, 1, -1))
-				.addAll(getClosestPieceInDirection(position, -1, 1))
-				.addAll(getClosestPieceInDirection(position, 1, 1))
-				.build();
+	boolean isSideToMoveInCheck() {
+		long king = bitboards[bitboardIndex(ChessPieceType.KING, sideToMove)];
+		return king != 0 && isAttacked(bitboards, Long.numberOfTrailingZeros(king),
+				other(sideToMove), occupancy, /* captured */ 0);
 	}
 
 	/**
-	 * Returns the closest piece in a particular direction, or an empty list if there is none.
-	 *<p>
-	 * The direction is specified by a rank offset and a file offset.
-	 * This allows both straight and diagonal directions to be specified.
-	 */
-	private List<ChessPiece> getClosestPieceInDirection(ChessboardCoordinates position,
-			int rankOffset, int fileOffset) {
-		int currentRank = position.rank;
-		int currentFile = position.file;
-		while (true) {
-			currentRank += rankOffset;
-			currentFile += fileOffset;
-			if (currentRank < 0 || currentRank > 7 || currentFile < 0 || currentFile > 7) {
-				break;
-			}
-			ChessPiece piece = getPieceAtCoordinates(new ChessboardCoordinates(currentRank, currentFile));
-			if (piece != null) {
-				return ImmutableList.of(piece);
-			}
+	 * Returns true of the specified location is threatened by the other player.
+	 */
+	public boolean isLocationThreatenedBy(ChessboardCoordinates location, ChessPlayer player) {
+		int square = location.getSquare();
+		checkArgument(square >= 0, "location is not on the board");
+		return isAttacked(bitboards, square, player, occupancy, /* captured */ 0);
+	}
+
+	/**
+	 * Returns true of the square numbered rank * 8 + file is threatened by the other player.
+	 */
+	public boolean isSquareThreatenedBy(int square, ChessPlayer player) {
+		checkArgument(square >= 0 && square < SQUARES, "square is not on the board");
+		return isAttacked(bitboards, square, player, occupancy, /* captured */ 0);
+	}
+
+	/**
+	 * Returns the bitboard of every square attacked by the player's pieces, with bit
+	 * {@code rank * 8 + file} set for each square that
+	 * {@link #isLocationThreatenedBy(ChessboardCoordinates, ChessPlayer)} would accept.
+	 */
+	public long getAttackedSquares(ChessPlayer player) {
+		return getAttackedSquares(bitboards, occupancy, player);
+	}
+
+	/**
+	 * Returns the bitboard of every square attacked by the player's pieces, given the
+	 * board's bitboards, indexed by {@link #bitboardIndex}, and its occupied squares.
+	 */
+	static long getAttackedSquares(long[] bitboards, long occupancy, ChessPlayer player) {
+		long attacks = AttackTables.pawnAttacks(player,
+						bitboards[bitboardIndex(ChessPieceType.PAWN, player)])
+				| AttackTables.knightAttacks(bitboards[bitboardIndex(ChessPieceType.KNIGHT, player)])
+				| AttackTables.kingAttacks(bitboards[bitboardIndex(ChessPieceType.KING, player)]);
+		long queens = bitboards[bitboardIndex(ChessPieceType.QUEEN, player)];
+		for (long rooks = bitboards[bitboardIndex(ChessPieceType.ROOK, player)] | queens;
+				rooks != 0; rooks &= rooks - 1) {
+			attacks |= AttackTables.rookAttacks(Long.numberOfTrailingZeros(rooks), occupancy);
+		}
+		for (long bishops = bitboards[bitboardIndex(ChessPieceType.BISHOP, player)] | queens;
+				bishops != 0; bishops &= bishops - 1) {
+			attacks |= AttackTables.bishopAttacks(Long.numberOfTrailingZeros(bishops), occupancy);
 		}
-		return ImmutableList.of();
+		return attacks;
 	}
 
 	/**
-	 * Returns all of the pieces at the specified positions.
+	 * Returns the bitboard of every square holding one of the player's pieces.
 	 */
-	private List<ChessPiece> getAllPieces(List<ChessboardCoordinates> positions) {
-		ImmutableList.Builder<ChessPiece> builder = ImmutableList.<ChessPiece>builder();
-		for (ChessboardCoordinates position : positions) {
-			ChessPiece piece = getPieceAtCoordinates(position);
-			if (piece != null) {
-				builder.add(piece);
-			}
+	public long getOccupiedSquares(ChessPlayer player) {
+		return playerOccupancy[player.ordinal()];
+	}
+
+	/**
+	 * Returns true if any of the player's pieces attack the square, given which squares
+	 * are occupied and which squares hold pieces that should be treated as captured.
+	 */
+	private static boolean isAttacked(long[] bitboards, int square, ChessPlayer player,
+			long occupied, long captured) {
+		long queens = bitboards[bitboardIndex(ChessPieceType.QUEEN, player)];
+		long attackers = (AttackTables.knightAttacks(square)
+						& bitboards[bitboardIndex(ChessPieceType.KNIGHT, player)])
+				| (AttackTables.kingAttacks(square)
+						& bitboards[bitboardIndex(ChessPieceType.KING, player)])
+				| (AttackTables.pawnAttacks(other(player), square)
+						& bitboards[bitboardIndex(ChessPieceType.PAWN, player)])
+				| (AttackTables.rookAttacks(square, occupied)
+						& (bitboards[bitboardIndex(ChessPieceType.ROOK, player)] | queens))
+				| (AttackTables.bishopAttacks(square, occupied)
+						& (bitboards[bitboardIndex(ChessPieceType.BISHOP, player)] | queens));
+		return (attackers & ~captured) != 0;
+	}
 
+	/**
+	 * Returns the bitboard of the player's pieces of the given type which attack the square,
+	 * given which squares are occupied. For pawns, this only includes captures.
+	 */
+	private static long getAttackers(long[] bitboards, int square, ChessPlayer player,
+			ChessPieceType type, long occupied) {
+		long candidates = bitboards[bitboardIndex(type, player)];
+		switch (type) {
+			case KING:
+				return candidates & AttackTables.kingAttacks(square);
+			case QUEEN:
+				return candidates & AttackTables.queenAttacks(square, occupied);
+			case ROOK:
+				return candidates & AttackTables.rookAttacks(square, occupied);
+			case BISHOP:
+				return candidates & AttackTables.bishopAttacks(square, occupied);
+			case KNIGHT:
+				return candidates & AttackTables.knightAttacks(square);
+			case PAWN:
+				// A pawn attacks the square if a pawn of the other player
+				// on that square would attack the pawn.
+				return candidates & AttackTables.pawnAttacks(other(player), square);
+			default:
+				throw new IllegalArgumentException("unexpected type: " + type);
 		}
-		return builder.build();
 	}
 
 	/**
-	 * Filters out all pieces not matching the specified type and player.
+	 * Returns the bitboard of the player's pawn which could move straight forward to the
+	 * square: the pawn directly behind it, or else a pawn two squares behind it.
 	 */
-	private List<ChessPiece> filterPieces(List<ChessPiece> pieces, ChessPieceType type,
-			ChessPlayer player) {
-		ImmutableList.Builder<ChessPiece> builder = ImmutableList.<ChessPiece>builder();
-		for (ChessPiece piece : pieces) {
-			checkNotNull(piece, "piece");
-			if (piece.getType() == type && piece.owner == player) {
-				builder.add(piece);
-			}
+	private static long getPossiblePawnPushes(long[] bitboards, ChessPlayer player,
+			int square) {
+		long pawns = bitboards[bitboardIndex(ChessPieceType.PAWN, player)];
+		long destination = 1L << square;
+		long oneBack = (player == ChessPlayer.BLACK) ? destination << 8 : destination >>> 8;
+		if ((pawns & oneBack) != 0) {
+			return oneBack;
 		}
-		return builder.build();
+		long twoBack = (player == ChessPlayer.BLACK) ? oneBack << 8 : oneBack >>> 8;
+		return pawns & twoBack;
 	}
 
 	/**
@@ -407,52 +606,265 @@ public class Chessboard {
 	 * pieces, moves the moving piece to its new tile, and promotes pawns if necessary. 
 	 */
 	public void acceptMove(ChessMove move) {
+		int origin = move.movingPiece.getSquare();
+		int destination = move.getDestinationSquare();
+		checkState(origin >= 0 && squares[origin] == move.movingPiece,
+				"moving piece is not on this board");
+		checkArgument(destination >= 0, "destination is not on the board");
+
 		if (move.isCapture) {
-			ChessPiece capturedPiece = getPieceAtCoordinates(move.destination);
+			ChessPiece capturedPiece = squares[destination];
 			if (capturedPiece == null) {
 				// Handle en passant.
 				checkState(move.movingPiece.getType() == ChessPieceType.PAWN,
 						"only pawns can perform en passant");
-				int oneRankBackwards = (move.movingPiece.owner == ChessPlayer.BLACK) ? 1 : -1;
-				capturedPiece = getPieceAtCoordinates(new ChessboardCoordinates(
-						move.destination.rank + oneRankBackwards, move.destination.file));
+				int oneRankBackwards = (move.movingPiece.owner == ChessPlayer.BLACK) ? 8 : -8;
+				capturedPiece = getPieceAtSquare(destination + oneRankBackwards);
 				if (capturedPiece == null) {
 					throw new IllegalStateException("error while handling en passant");
 				}
 			}
-			pieces.remove(capturedPiece);
+			remove(capturedPiece, capturedPiece.getSquare());
 		}
 
+		boolean isDoublePawnPush = move.movingPiece.getType() == ChessPieceType.PAWN
+				&& Math.abs(destination - origin) == 16;
+		remove(move.movingPiece, origin);
 		move.movingPiece.setPosition(move.destination);
 
 		if (move.promotion != null) {
 			move.movingPiece.setType(move.promotion);
 		}
+		place(move.movingPiece, destination);
+
+		castlingRights &= ~(CASTLING_RIGHTS_LOST[origin] | CASTLING_RIGHTS_LOST[destination]);
+		enPassantFile = isDoublePawnPush ? destination % 8 : -1;
+		// Set rather than toggled, since castling is applied as two moves.
+		sideToMove = other(move.movingPiece.owner);
+	}
+
+	/**
+	 * Applies a move packed by {@link ChessMove#pack(ChessMove)} to this board, so that
+	 * it can be undone by {@link #unmakeMove()}. The move is assumed to be legal; castling
+	 * is given as the king's move, and en passant as a pawn capturing onto an empty square.
+	 *<p>
+	 * Besides the captured piece, which is kept in a parallel stack, everything needed
+	 * to undo the move is packed into an int: the origin in bits 0-5, the destination in
+	 * bits 6-11, the captured piece's square in bits 12-17, whether a pawn was promoted in
+	 * bit 18, and the previous castling rights, en passant file plus one and side to move
+	 * in bits 19-22, 23-26 and 27. Once the stacks are large enough, this doesn't allocate.
+	 */
+	void makeMove(short packedMove) {
+		makeMove(packedMove, /* isUndoable */ true);
+	}
+
+	/**
+	 * Applies a packed move like {@link #makeMove(short)}, but without recording how
+	 * to undo it; this is how games are replayed, so it never allocates.
+	 */
+	void playMove(short packedMove) {
+		makeMove(packedMove, /* isUndoable */ false);
+	}
+
+	private void makeMove(short packedMove, boolean isUndoable) {
+		int origin = ChessMove.getOrigin(packedMove);
+		int destination = ChessMove.getDestination(packedMove);
+		ChessPiece piece = checkNotNull(squares[origin], "no piece at origin of move");
+		ChessPiece capturedPiece = squares[destination];
+		int capturedSquare = destination;
+		if (capturedPiece == null && piece.getType() == ChessPieceType.PAWN
+				&& origin % 8 != destination % 8) {
+			// Handle en passant.
+			capturedSquare += (piece.owner == ChessPlayer.BLACK) ? 8 : -8;
+			capturedPiece = checkNotNull(squares[capturedSquare],
+					"error while handling en passant");
+		}
+		ChessPieceType promotion = ChessMove.getPromotion(packedMove);
+
+		if (isUndoable) {
+			if (undoCount == undoRecords.length) {
+				int length = Math.max(2 * undoCount, 16);
+				undoRecords = Arrays.copyOf(undoRecords, length);
+				capturedPieces = Arrays.copyOf(capturedPieces, length);
+			}
+			undoRecords[undoCount] = origin
+					| (destination << 6)
+					| (capturedSquare << 12)
+					| ((promotion != null) ? 1 << 18 : 0)
+					| (castlingRights << 19)
+					| ((enPassantFile + 1) << 23)
+					| (sideToMove.ordinal() << 27);
+			capturedPieces[undoCount++] = capturedPiece;
+		}
+
+		if (capturedPiece != null) {
+			remove(capturedPiece, capturedSquare);
+		}
+		boolean isDoublePawnPush = piece.getType() == ChessPieceType.PAWN
+				&& Math.abs(destination - origin) == 16;
+		movePiece(piece, origin, destination);
+		if (promotion != null) {
+			remove(piece, destination);
+			piece.setType(promotion);
+			place(piece, destination);
+		}
+		if (piece.getType() == ChessPieceType.KING && Math.abs(destination - origin) == 2) {
+			// Castling; the rook moves to the other side of the king.
+			int rookOrigin = (destination > origin) ? origin + 3 : origin - 4;
+			movePiece(squares[rookOrigin], rookOrigin, (origin + destination) / 2);
+		}
+
+		castlingRights &= ~(CASTLING_RIGHTS_LOST[origin] | CASTLING_RIGHTS_LOST[destination]);
+		enPassantFile = isDoublePawnPush ? destination % 8 : -1;
+		sideToMove = other(piece.owner);
+	}
+
+	/**
+	 * Undoes the last move applied by {@link #makeMove(short)}.
+	 */
+	void unmakeMove() {
+		checkState(undoCount > 0, "no move to unmake");
+		int undoRecord = undoRecords[--undoCount];
+		ChessPiece capturedPiece = capturedPieces[undoCount];
+		capturedPieces[undoCount] = null;
+		int origin = undoRecord & 0x3f;
+		int destination = (undoRecord >>> 6) & 0x3f;
+		ChessPiece piece = squares[destination];
+
+		if (piece.getType() == ChessPieceType.KING && Math.abs(destination - origin) == 2) {
+			int rookOrigin = (destination > origin) ? origin + 3 : origin - 4;
+			int rookDestination = (origin + destination) / 2;
+			movePiece(squares[rookDestination], rookDestination, rookOrigin);
+		}
+		if ((undoRecord & (1 << 18)) != 0) {
+			remove(piece, destination);
+			piece.unpromote();
+			place(piece, destination);
+		}
+		movePiece(piece, destination, origin);
+		if (capturedPiece != null) {
+			place(capturedPiece, (undoRecord >>> 12) & 0x3f);
+		}
+
+		castlingRights = (undoRecord >>> 19) & 0xf;
+		enPassantFile = ((undoRecord >>> 23) & 0xf) - 1;
+		sideToMove = ((undoRecord >>> 27) & 1) == 0 ? ChessPlayer.WHITE : ChessPlayer.BLACK;
+	}
+
+	private void movePiece(ChessPiece piece, int origin, int destination) {
+		remove(piece, origin);
+		piece.setPosition(ChessboardCoordinates.ofSquare(destination));
+		place(piece, destination);
+	}
+
+	private void place(ChessPiece piece, int square) {
+		long bit = 1L << square;
+		bitboards[bitboardIndex(piece.getType(), piece.owner)] |= bit;
+		playerOccupancy[piece.owner.ordinal()] |= bit;
+		occupancy |= bit;
+		squares[square] = piece;
+		int index = bitboardIndex(piece.getType(), piece.owner);
+		placementKey ^= ZobristKeys.piece(index, square);
+		pieceCounts += COUNT_INCREMENTS[index];
+	}
+
+	private void remove(ChessPiece piece, int square) {
+		long bit = ~(1L << square);
+		bitboards[bitboardIndex(piece.getType(), piece.owner)] &= bit;
+		playerOccupancy[piece.owner.ordinal()] &= bit;
+		occupancy &= bit;
+		squares[square] = null;
+		int index = bitboardIndex(piece.getType(), piece.owner);
+		placementKey ^= ZobristKeys.piece(index, square);
+		pieceCounts -= COUNT_INCREMENTS[index];
+	}
+
+	/**
+	 * Returns the index into the bitboards of a piece type and owner.
+	 */
+	static int bitboardIndex(ChessPieceType type, ChessPlayer owner) {
+		return owner.ordinal() * ChessPieceType.values().length + type.ordinal();
+	}
+
+	static ChessPlayer other(ChessPlayer player) {
+		return (player == ChessPlayer.WHITE) ? ChessPlayer.BLACK : ChessPlayer.WHITE;
+	}
+
+	/**
+	 * Copies the placement of the pieces on this board into an array with one byte per
+	 * square (indexed by rank * 8 + file), without allocating; see {@link #encodePiece}.
+	 * The last two of the {@link #PLACEMENT_LENGTH} bytes hold the side to move and
+	 * castling rights, and the en passant file plus one.
+	 */
+	void copyPlacementTo(byte[] placement) {
+		checkArgument(placement.length == PLACEMENT_LENGTH, "placement has the wrong length");
+		Arrays.fill(placement, 0, SQUARES, (byte) 0);
+		for (int index = 0; index < BITBOARDS; index++) {
+			for (long remaining = bitboards[index]; remaining != 0; remaining &= remaining - 1) {
+				placement[Long.numberOfTrailingZeros(remaining)] = (byte) (index + 1);
+			}
+		}
+		placement[SQUARES] = (byte) ((sideToMove.ordinal() << 4) | castlingRights);
+		placement[SQUARES + 1] = (byte) (enPassantFile + 1);
 	}
-	
+
+	/**
+	 * Encodes a piece's type and owner as a non-zero byte; 0 is used for empty squares.
+	 * This is one more than the piece's index into the bitboards.
+	 */
+	static byte encodePiece(ChessPieceType type, ChessPlayer owner) {
+		return (byte) (1 + bitboardIndex(type, owner));
+	}
+
+	/**
+	 * Returns the bitboard of the pieces with the given index; see {@link #bitboardIndex}.
+	 */
+	long getBitboard(int index) {
+		return bitboards[index];
+	}
+
 	/**
 	 * Returns a deeply immutable version of this chessboard.
 	 */
 	public ImmutableChessboard asImmutable() {
-		ImmutableSet.Builder<ImmutableChessPiece> piecesBuilder = ImmutableSet.builder();
-		for (ChessPiece mutablePiece : pieces) {
-			piecesBuilder.add(mutablePiece.asImmutable());
-		}
-		return new ImmutableChessboard(piecesBuilder.build());
+		return ImmutableChessboard.fromBitboards(bitboards, sideToMove, castlingRights,
+				enPassantFile, placementKey, pieceCounts);
 	}
 
+	/**
+	 * Boards are equal if they have the same pieces on the same squares and the same
+	 * side to move, castling rights and en passant file. Since the board is mutable, its
+	 * hash code changes as moves are made; use {@link #asImmutable()} for a map key.
+	 */
 	@Override
 	public boolean equals(Object other) {
-		throw new RuntimeException("not implemented");
+		if (other == null) {
+			return false;
+		}
+		if (getClass() != other.getClass()) {
+			return false;
+		}
+		// Keys almost always differ for different positions, so they are compared first.
+		final Chessboard that = (Chessboard) other;
+		return this.getZobristKey() == that.getZobristKey()
+				&& Arrays.equals(this.bitboards, that.bitboards)
+				&& this.sideToMove == that.sideToMove
+				&& this.castlingRights == that.castlingRights
+				&& this.enPassantFile == that.enPassantFile;
 	}
 
 	@Override
 	public int hashCode() {
-		throw new RuntimeException("not implemented");
+		return Longs.hashCode(getZobristKey());
 	}
 
 	@Override
 	public String toString() {
-		throw new RuntimeException("not implemented");
+		return Objects.toStringHelper(this)
+				.add("pieces", getPieces())
+				.add("sideToMove", sideToMove)
+				.add("castlingRights", castlingRights)
+				.add("enPassantFile", enPassantFile)
+				.toString();
 	}
 }
@@ -7,6 +7,11 @@ import com.google.common.base.Objects;
 
 /**
  * Represents a position on a chessboard.
+ *<p>
+ * There is one canonical instance per square of the board, returned by
+ * {@link #of(int, int)} and {@link #ofSquare(int)}; prefer those to the
+ * constructors so that replaying moves doesn't allocate coordinates.
+ * Squares are also numbered {@code rank * 8 + file}, from 0 to 63.
  */
 public class ChessboardCoordinates {
 
@@ -15,6 +20,16 @@ public class ChessboardCoordinates {
 
 	public final int rank; // 0-indexed
 	public final int file; // 0-indexed
+	private final int square; // rank * 8 + file, or -1 if off the board
+
+	// The canonical instance for each square.
+	private static final ChessboardCoordinates[] SQUARES = new ChessboardCoordinates[64];
+
+	static {
+		for (int square = 0; square < SQUARES.length; square++) {
+			SQUARES[square] = new ChessboardCoordinates(square / 8, square % 8);
+		}
+	}
 
 	/**
 	 * Construct using rank and file as 0-indexed integers.
@@ -24,6 +39,7 @@ public class ChessboardCoordinates {
 		// this makes various algorithms convenient.
 		this.rank = rank;
 		this.file = file;
+		this.square = toSquare(rank, file);
 	}
 
 	/**
@@ -38,6 +54,50 @@ public class ChessboardCoordinates {
 		checkArgument(FILE_LETTERS.contains(file), "unexpected file string: " + file);
 		this.rank = RANK_DIGITS.indexOf(rank);
 		this.file = FILE_LETTERS.indexOf(file);
+		this.square = toSquare(this.rank, this.file);
+	}
+
+	/**
+	 * Returns the coordinates for a rank and file as 0-indexed integers. These are
+	 * canonical instances unless the coordinates are outside of the board.
+	 */
+	public static ChessboardCoordinates of(int rank, int file) {
+		int square = toSquare(rank, file);
+		return (square < 0) ? new ChessboardCoordinates(rank, file) : SQUARES[square];
+	}
+
+	/**
+	 * Returns the canonical coordinates for a square numbered rank * 8 + file.
+	 */
+	public static ChessboardCoordinates ofSquare(int square) {
+		checkArgument(square >= 0 && square < SQUARES.length, "square is not on the board");
+		return SQUARES[square];
+	}
+
+	/**
+	 * Returns the canonical coordinates written as a file letter and a rank digit,
+	 * as in SAN moves such as "e6".
+	 */
+	public static ChessboardCoordinates parse(char file, char rank) {
+		int rankIndex = RANK_DIGITS.indexOf(rank);
+		checkArgument(rankIndex >= 0, "unexpected rank character: " + rank);
+		int fileIndex = FILE_LETTERS.indexOf(file);
+		checkArgument(fileIndex >= 0, "unexpected file character: " + file);
+		return SQUARES[rankIndex * 8 + fileIndex];
+	}
+
+	/**
+	 * Returns the square numbered rank * 8 + file, or -1 if these coordinates are off the board.
+	 */
+	public int getSquare() {
+		return square;
+	}
+
+	private static int toSquare(int rank, int file) {
+		if (rank < 0 || rank > 7 || file < 0 || file > 7) {
+			return -1;
+		}
+		return rank * 8 + file;
 	}
 
 	@Override
@@ -49,13 +109,13 @@ public class ChessboardCoordinates {
 			return false;
 		}
 		final ChessboardCoordinates that = (ChessboardCoordinates) other;
-		return Objects.equal(this.rank, that.rank)
-				&& Objects.equal(this.file, that.file);
+		return this.rank == that.rank && this.file == that.file;
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hashCode(this.rank, this.file);
+		// The same value as Objects.hashCode(rank, file), without boxing.
+		return 31 * (31 + rank) + file;
 	}
 
 	@Override
@@ -0,0 +1,269 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads and writes positions in Forsyth-Edwards Notation (FEN), for example the
+ * starting position:
+ * rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1
+ *<p>
+ * This lets a board be set up directly at any position, rather than by replaying
+ * moves from the start; PGN games which start elsewhere give their first position
+ * in a "FEN" tag. Positions are read with a single pass over the characters.
+ *<p>
+ * Boards don't track the halfmove clock or the move number, so these fields are
+ * optional when reading, and are written as "0 1".
+ */
+public final class Fen {
+	public static final String STARTING_POSITION =
+			"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+	// The bitboard index of each piece letter, or -1; see Chessboard.bitboardIndex().
+	private static final int[] PIECE_INDICES = new int[128];
+	// The piece letter for each bitboard index.
+	private static final char[] PIECE_LETTERS = new char[Chessboard.BITBOARDS];
+	private static final ChessPieceType[] TYPES = ChessPieceType.values();
+	private static final ChessPlayer[] PLAYERS = ChessPlayer.values();
+	// Piece counts are packed into four bits each (see Chessboard.getPieceCount()), so
+	// positions with more pieces of a type than any legal game can reach are rejected.
+	private static final int MAX_PAWNS = 8;
+	private static final int MAX_PIECES_OF_TYPE = 10;
+
+	static {
+		Arrays.fill(PIECE_INDICES, -1);
+		for (ChessPieceType type : ChessPieceType.values()) {
+			char letter = type.abbreviation.charAt(0);
+			int white = Chessboard.bitboardIndex(type, ChessPlayer.WHITE);
+			int black = Chessboard.bitboardIndex(type, ChessPlayer.BLACK);
+			PIECE_INDICES[letter] = white;
+			PIECE_INDICES[Character.toLowerCase(letter)] = black;
+			PIECE_LETTERS[white] = letter;
+			PIECE_LETTERS[black] = Character.toLowerCase(letter);
+		}
+	}
+
+	/**
+	 * No public constructor; use the static methods.
+	 */
+	private Fen() {
+	}
+
+	/**
+	 * Returns a board set up at the position; use {@link Chessboard#asImmutable()}
+	 * for a snapshot of it.
+	 */
+	public static Chessboard parse(String fen) {
+		checkNotNull(fen, "fen");
+		int length = fen.length();
+		List<ChessPiece> pieces = new ArrayList<ChessPiece>(32);
+		int[] pieceCounts = new int[Chessboard.BITBOARDS];
+		long[] bitboards = new long[Chessboard.BITBOARDS];
+		int position = 0;
+
+		// Piece placement, from rank 8 down to rank 1.
+		int rank = 7;
+		int file = 0;
+		for (; position < length && fen.charAt(position) != ' '; position++) {
+			char character = fen.charAt(position);
+			if (character == '/') {
+				checkArgument(file == 8 && rank > 0, "misplaced \"/\": %s", fen);
+				rank--;
+				file = 0;
+			} else if (character >= '1' && character <= '8') {
+				file += character - '0';
+			} else {
+				int index = (character < PIECE_INDICES.length) ? PIECE_INDICES[character] : -1;
+				checkArgument(index >= 0, "unexpected piece \"%s\": %s", character, fen);
+				checkArgument(file < 8, "too many squares on rank %s: %s", rank + 1, fen);
+				pieceCounts[index]++;
+				bitboards[index] |= 1L << (rank * 8 + file);
+				pieces.add(new ChessPiece(TYPES[index % TYPES.length],
+						PLAYERS[index / TYPES.length], rank, file++));
+			}
+			checkArgument(file <= 8, "too many squares on rank %s: %s", rank + 1, fen);
+		}
+		checkArgument(rank == 0 && file == 8, "expected eight full ranks: %s", fen);
+		checkPieceCounts(pieceCounts, fen);
+
+		// Side to move.
+		position = skipSpace(fen, position);
+		checkArgument(position < length, "missing side to move: %s", fen);
+		ChessPlayer sideToMove;
+		switch (fen.charAt(position++)) {
+			case 'w':
+				sideToMove = ChessPlayer.WHITE;
+				break;
+			case 'b':
+				sideToMove = ChessPlayer.BLACK;
+				break;
+			default:
+				throw new IllegalArgumentException("unexpected side to move: " + fen);
+		}
+
+		// Castling rights.
+		position = skipSpace(fen, position);
+		checkArgument(position < length, "missing castling rights: %s", fen);
+		int castlingRights = 0;
+		if (fen.charAt(position) == '-') {
+			position++;
+		} else {
+			for (; position < length && fen.charAt(position) != ' '; position++) {
+				castlingRights |= castlingRight(fen.charAt(position), fen);
+			}
+			// Rights are dropped unless the king and rook are still on their starting squares,
+			// since castling without them can't be played.
+			castlingRights &= Chessboard.getUnmovedCastlingRights(bitboards);
+		}
+
+		// En passant target square, which is behind a pawn which just moved two squares.
+		position = skipSpace(fen, position);
+		checkArgument(position < length, "missing en passant square: %s", fen);
+		int enPassantFile = -1;
+		if (fen.charAt(position) == '-') {
+			position++;
+		} else {
+			checkArgument(position + 1 < length, "unexpected en passant square: %s", fen);
+			enPassantFile = fen.charAt(position) - 'a';
+			char expectedRank = (sideToMove == ChessPlayer.WHITE) ? '6' : '3';
+			checkArgument(enPassantFile >= 0 && enPassantFile < 8
+					&& fen.charAt(position + 1) == expectedRank,
+					"unexpected en passant square: %s", fen);
+			position += 2;
+		}
+
+		// The halfmove clock and move number are optional, and ignored.
+		for (int field = 0; field < 2; field++) {
+			position = skipSpace(fen, position);
+			for (; position < length && fen.charAt(position) != ' '; position++) {
+				char digit = fen.charAt(position);
+				checkArgument(digit >= '0' && digit <= '9', "unexpected move counter: %s", fen);
+			}
+		}
+		checkArgument(skipSpace(fen, position) == length, "unexpected trailing text: %s", fen);
+
+		return new Chessboard(pieces, sideToMove, castlingRights, enPassantFile);
+	}
+
+	/**
+	 * Returns the move number given by a position, which is 1 if it's left out.
+	 * The first move by white in a game is move 1, and it goes up after each move by black.
+	 */
+	static int getMoveNumber(String fen) {
+		int length = fen.length();
+		int position = skipSpace(fen, 0);
+		for (int field = 0; position < length; field++) {
+			int end = fen.indexOf(' ', position);
+			end = (end < 0) ? length : end;
+			if (field == 5) {
+				return Integer.parseInt(fen.substring(position, end));
+			}
+			position = skipSpace(fen, end);
+		}
+		return 1;
+	}
+
+	/**
+	 * Returns the position of a board, or of an {@link ImmutableChessboard}.
+	 */
+	public static String toFen(Chessboard board) {
+		StringBuilder fen = new StringBuilder(90);
+		char[] letters = new char[Chessboard.SQUARES];
+		for (int index = 0; index < Chessboard.BITBOARDS; index++) {
+			for (long remaining = board.getBitboard(index); remaining != 0;
+					remaining &= remaining - 1) {
+				letters[Long.numberOfTrailingZeros(remaining)] = PIECE_LETTERS[index];
+			}
+		}
+		for (int rank = 7; rank >= 0; rank--) {
+			int empty = 0;
+			for (int file = 0; file < 8; file++) {
+				char letter = letters[rank * 8 + file];
+				if (letter == 0) {
+					empty++;
+					continue;
+				}
+				if (empty > 0) {
+					fen.append((char) ('0' + empty));
+					empty = 0;
+				}
+				fen.append(letter);
+			}
+			if (empty > 0) {
+				fen.append((char) ('0' + empty));
+			}
+			if (rank > 0) {
+				fen.append('/');
+			}
+		}
+
+		ChessPlayer sideToMove = board.getSideToMove();
+		fen.append(sideToMove == ChessPlayer.WHITE ? " w " : " b ");
+		int castlingRights = board.getCastlingRights();
+		if (castlingRights == 0) {
+			fen.append('-');
+		} else {
+			for (char right : "KQkq".toCharArray()) {
+				if ((castlingRights & castlingRight(right, "KQkq")) != 0) {
+					fen.append(right);
+				}
+			}
+		}
+		fen.append(' ');
+		int enPassantFile = board.getEnPassantFile();
+		if (enPassantFile < 0) {
+			fen.append('-');
+		} else {
+			fen.append((char) ('a' + enPassantFile))
+					.append(sideToMove == ChessPlayer.WHITE ? '6' : '3');
+		}
+		return fen.append(" 0 1").toString();
+	}
+
+	private static void checkPieceCounts(int[] pieceCounts, String fen) {
+		for (int index = 0; index < Chessboard.BITBOARDS; index++) {
+			ChessPieceType type = TYPES[index % TYPES.length];
+			ChessPlayer player = PLAYERS[index / TYPES.length];
+			int count = pieceCounts[index];
+			switch (type) {
+				case KING:
+					checkArgument(count == 1, "expected one %s king, not %s: %s",
+							player, count, fen);
+					break;
+				case PAWN:
+					checkArgument(count <= MAX_PAWNS, "too many %s pawns: %s", player, fen);
+					break;
+				default:
+					checkArgument(count <= MAX_PIECES_OF_TYPE, "too many %s %ss: %s", player,
+							type, fen);
+					break;
+			}
+		}
+	}
+
+	private static int skipSpace(String fen, int position) {
+		while (position < fen.length() && fen.charAt(position) == ' ') {
+			position++;
+		}
+		return position;
+	}
+
+	private static int castlingRight(char character, String fen) {
+		switch (character) {
+			case 'K':
+				return Chessboard.WHITE_KINGSIDE;
+			case 'Q':
+				return Chessboard.WHITE_QUEENSIDE;
+			case 'k':
+				return Chessboard.BLACK_KINGSIDE;
+			case 'q':
+				return Chessboard.BLACK_QUEENSIDE;
+			default:
+				throw new IllegalArgumentException("unexpected castling rights: " + fen);
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import com.google.common.base.Objects;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates over every ply of a {@link ChessGame}, such as the number of checks and
+ * captures by each player and how far the material balance swung.
+ *<p>
+ * These are kept up to date by {@link ChessGame.Builder} as each move is added, in a
+ * fixed amount of state per game, so they don't need any of the game's board states;
+ * see {@link TrajectoryVectorizer}. The material balance is white's material minus
+ * black's, as given by {@link Chessboard#getMaterial(ChessPlayer)}.
+ */
+public final class GameTrajectory {
+	private final int[] checks; // By player.
+	private final int[] captures; // By player.
+	private final int minMaterialBalance;
+	private final int maxMaterialBalance;
+	private final int pliesSinceCapture;
+
+	private GameTrajectory(Builder builder) {
+		this.checks = builder.checks.clone();
+		this.captures = builder.captures.clone();
+		this.minMaterialBalance = builder.minMaterialBalance;
+		this.maxMaterialBalance = builder.maxMaterialBalance;
+		this.pliesSinceCapture = builder.pliesSinceCapture;
+	}
+
+	/**
+	 * Returns the number of moves by the player which put the opponent in check,
+	 * including checkmate.
+	 */
+	public int getChecks(ChessPlayer player) {
+		return checks[player.ordinal()];
+	}
+
+	/**
+	 * Returns the number of captures by the player, including en passant.
+	 */
+	public int getCaptures(ChessPlayer player) {
+		return captures[player.ordinal()];
+	}
+
+	/**
+	 * Returns the most material the player was ever behind by, or 0 if the player
+	 * was never behind.
+	 */
+	public int getMaxMaterialDeficit(ChessPlayer player) {
+		return Math.max((player == ChessPlayer.WHITE)
+				? -minMaterialBalance : maxMaterialBalance, 0);
+	}
+
+	/**
+	 * Returns the difference between the highest and lowest material balance
+	 * over the game, including the starting position.
+	 */
+	public int getMaterialSwing() {
+		return maxMaterialBalance - minMaterialBalance;
+	}
+
+	/**
+	 * Returns the number of plies since the last capture, or since the start
+	 * of the game if there were no captures.
+	 */
+	public int getPliesSinceCapture() {
+		return pliesSinceCapture;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other == null) {
+			return false;
+		}
+		if (getClass() != other.getClass()) {
+			return false;
+		}
+		final GameTrajectory that = (GameTrajectory) other;
+		return Arrays.equals(this.checks, that.checks)
+				&& Arrays.equals(this.captures, that.captures)
+				&& this.minMaterialBalance == that.minMaterialBalance
+				&& this.maxMaterialBalance == that.maxMaterialBalance
+				&& this.pliesSinceCapture == that.pliesSinceCapture;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(Arrays.hashCode(this.checks),
+				Arrays.hashCode(this.captures), this.minMaterialBalance,
+				this.maxMaterialBalance, this.pliesSinceCapture);
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("whiteChecks", checks[0])
+				.add("blackChecks", checks[1])
+				.add("whiteCaptures", captures[0])
+				.add("blackCaptures", captures[1])
+				.add("minMaterialBalance", minMaterialBalance)
+				.add("maxMaterialBalance", maxMaterialBalance)
+				.add("pliesSinceCapture", pliesSinceCapture)
+				.toString();
+	}
+
+	/**
+	 * Builder for {@link GameTrajectory}, to which the board after each move is added.
+	 */
+	static final class Builder {
+		private final int[] checks = new int[2];
+		private final int[] captures = new int[2];
+		private int minMaterialBalance = 0;
+		private int maxMaterialBalance = 0;
+		private int pliesSinceCapture = 0;
+
+		/**
+		 * Starts the trajectory from the given position, rather than the usual one.
+		 */
+		void setStartingPosition(Chessboard board) {
+			int materialBalance = getMaterialBalance(board);
+			minMaterialBalance = materialBalance;
+			maxMaterialBalance = materialBalance;
+		}
+
+		/**
+		 * Adds a move, given the board after it and whether the move gave check.
+		 */
+		void addMove(short packedMove, Chessboard board, boolean isCheck) {
+			int mover = Chessboard.other(board.getSideToMove()).ordinal();
+			if (isCheck) {
+				checks[mover]++;
+			}
+			if (ChessMove.isCapture(packedMove)) {
+				captures[mover]++;
+				pliesSinceCapture = 0;
+			} else {
+				pliesSinceCapture++;
+			}
+			int materialBalance = getMaterialBalance(board);
+			minMaterialBalance = Math.min(minMaterialBalance, materialBalance);
+			maxMaterialBalance = Math.max(maxMaterialBalance, materialBalance);
+		}
+
+		GameTrajectory build() {
+			return new GameTrajectory(this);
+		}
+
+		private static int getMaterialBalance(Chessboard board) {
+			return board.getMaterial(ChessPlayer.WHITE) - board.getMaterial(ChessPlayer.BLACK);
+		}
+	}
+}
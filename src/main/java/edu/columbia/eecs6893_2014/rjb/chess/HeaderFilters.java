@@ -0,0 +1,107 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Predicates on {@link ChessGameHeader}s, used to skip games before their moves are
+ * replayed; see
+ * {@link PgnParser#parseFiltered(java.io.File, PgnParser.ChessGameConverter, Predicate)}.
+ *<p>
+ * Predicates can be combined using {@link com.google.common.base.Predicates#and}.
+ * Games which are missing the relevant tag never match.
+ */
+public class HeaderFilters {
+
+	/**
+	 * No public constructor; use the static methods.
+	 */
+	private HeaderFilters() {
+	}
+
+	/**
+	 * Matches games whose "Result" tag is one of the given results, for example "1-0".
+	 */
+	public static Predicate<ChessGameHeader> result(String... results) {
+		final ImmutableSet<String> acceptedResults = ImmutableSet.copyOf(results);
+		return new Predicate<ChessGameHeader>() {
+			@Override
+			public boolean apply(ChessGameHeader header) {
+				return acceptedResults.contains(header.get("Result"));
+			}
+		};
+	}
+
+	/**
+	 * Matches games which were won by either player, excluding ties and unfinished games.
+	 */
+	public static Predicate<ChessGameHeader> decisive() {
+		return result("1-0", "0-1");
+	}
+
+	/**
+	 * Matches games where both players' Elo ratings are within the given range, inclusive.
+	 */
+	public static Predicate<ChessGameHeader> eloBetween(final int minimum, final int maximum) {
+		checkArgument(minimum <= maximum, "minimum must not be greater than maximum");
+		return new Predicate<ChessGameHeader>() {
+			@Override
+			public boolean apply(ChessGameHeader header) {
+				return isBetween(header.getInteger("WhiteElo"), minimum, maximum)
+						&& isBetween(header.getInteger("BlackElo"), minimum, maximum);
+			}
+		};
+	}
+
+	/**
+	 * Matches games whose ECO opening code starts with the given prefix, for example "B2".
+	 */
+	public static Predicate<ChessGameHeader> ecoPrefix(final String prefix) {
+		checkNotNull(prefix, "prefix");
+		return new Predicate<ChessGameHeader>() {
+			@Override
+			public boolean apply(ChessGameHeader header) {
+				String eco = header.get("ECO");
+				return eco != null && eco.startsWith(prefix);
+			}
+		};
+	}
+
+	/**
+	 * Matches games played within the given range of dates, inclusive. Dates use the
+	 * PGN format "YYYY.MM.DD" and are compared as strings, so an unknown part such as
+	 * "2006.??.??" falls after every known date in the same year.
+	 */
+	public static Predicate<ChessGameHeader> dateBetween(final String earliest,
+			final String latest) {
+		checkNotNull(earliest, "earliest");
+		checkNotNull(latest, "latest");
+		checkArgument(earliest.compareTo(latest) <= 0, "earliest must not be after latest");
+		return new Predicate<ChessGameHeader>() {
+			@Override
+			public boolean apply(ChessGameHeader header) {
+				String date = header.get("Date");
+				return date != null && date.compareTo(earliest) >= 0 && date.compareTo(latest) <= 0;
+			}
+		};
+	}
+
+	/**
+	 * Matches games whose "PlyCount" tag is at least the given number of plies.
+	 */
+	public static Predicate<ChessGameHeader> minPlyCount(final int minimum) {
+		return new Predicate<ChessGameHeader>() {
+			@Override
+			public boolean apply(ChessGameHeader header) {
+				return isBetween(header.getInteger("PlyCount"), minimum, Integer.MAX_VALUE);
+			}
+		};
+	}
+
+	private static boolean isBetween(Integer value, int minimum, int maximum) {
+		return value != null && value >= minimum && value <= maximum;
+	}
+}
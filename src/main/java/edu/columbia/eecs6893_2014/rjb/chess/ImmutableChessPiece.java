@@ -6,6 +6,21 @@ import com.google.common.base.Objects;
  * Immutable version of {@link ChessPiece}.
  */
 public class ImmutableChessPiece extends ChessPiece {
+	// The canonical piece of each type and owner on each square, indexed
+	// by Chessboard.bitboardIndex() and then by square.
+	private static final ImmutableChessPiece[][] CANONICAL =
+			new ImmutableChessPiece[Chessboard.BITBOARDS][Chessboard.SQUARES];
+
+	static {
+		ChessPieceType[] types = ChessPieceType.values();
+		ChessPlayer[] players = ChessPlayer.values();
+		for (int index = 0; index < CANONICAL.length; index++) {
+			for (int square = 0; square < Chessboard.SQUARES; square++) {
+				CANONICAL[index][square] = new ImmutableChessPiece(types[index % types.length],
+						players[index / types.length], ChessboardCoordinates.ofSquare(square));
+			}
+		}
+	}
 
 	/**
 	 * No public constructor, use {@link ChessPiece#asImmutable()}.
@@ -15,11 +30,24 @@ public class ImmutableChessPiece extends ChessPiece {
 		super(type, owner, position);
 	}
 
+	/**
+	 * Returns the canonical piece with the given index into the bitboards
+	 * (see {@link Chessboard#bitboardIndex}) on the square.
+	 */
+	static ImmutableChessPiece of(int bitboardIndex, int square) {
+		return CANONICAL[bitboardIndex][square];
+	}
+
 	@Override
 	public void setType(ChessPieceType type) {
 		throw new IllegalArgumentException("cannot mutate type");
 	}
 
+	@Override
+	void unpromote() {
+		throw new IllegalArgumentException("cannot mutate type");
+	}
+
 	@Override
 	public void setPosition(ChessboardCoordinates position) {
 		throw new IllegalArgumentException("cannot mutate position");
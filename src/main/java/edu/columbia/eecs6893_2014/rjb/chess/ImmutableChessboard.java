@@ -1,18 +1,297 @@
 package edu.columbia.eecs6893_2014.rjb.chess;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Longs;
+
+import javax.annotation.Nullable;
 
 /**
  * Immutable version of {@link Chessboard}.
+ *<p>
+ * To keep the many snapshots of a game small, the board is stored packed, with the
+ * piece on each square (as encoded by {@link Chessboard#encodePiece}) in four bits
+ * and sixteen squares per {@code long}. The pieces are decoded when queried, and the
+ * pieces returned are shared canonical instances. The first bitboard or threat query
+ * unpacks the squares into bitboards, and computes the squares attacked by each player;
+ * these are kept, so later queries are answered with masks.
  */
 public class ImmutableChessboard extends Chessboard {
+	private static final int BITS_PER_SQUARE = 4;
+	private static final int SQUARE_MASK = 0xf;
+	private static final int PIECE_TYPES = ChessPieceType.values().length;
+	// The index into the unpacked bitboards of the first player's occupied squares,
+	// the first player's attacked squares, and the total occupancy.
+	private static final int OCCUPIED = BITBOARDS;
+	private static final int ATTACKED = OCCUPIED + 2;
+	private static final int ALL_OCCUPIED = ATTACKED + 2;
+
+	// The packed squares; see packedSquares().
+	private final long ranks1And2;
+	private final long ranks3And4;
+	private final long ranks5And6;
+	private final long ranks7And8;
+	// The bitboards indexed by Chessboard.bitboardIndex(), followed by the squares occupied
+	// and attacked by each player and the total occupancy; computed when first needed.
+	private volatile long[] unpacked;
 
 	/**
 	 * No public constructor, use {@link Chessboard#asImmutable()}.
 	 */
 	protected ImmutableChessboard(ImmutableSet<ImmutableChessPiece> pieces) {
-		super(ImmutableSet.<ChessPiece>copyOf(pieces)); // Copy required because of generics.
+		this(toBitboards(pieces));
+	}
+
+	private ImmutableChessboard(long[] bitboards) {
+		this(bitboards, ChessPlayer.WHITE, getUnmovedCastlingRights(bitboards),
+				/* enPassantFile */ -1);
+	}
+
+	ImmutableChessboard(ImmutableSet<ImmutableChessPiece> pieces, ChessPlayer sideToMove,
+			int castlingRights, int enPassantFile) {
+		this(toBitboards(pieces), sideToMove, castlingRights, enPassantFile);
+	}
+
+	private ImmutableChessboard(long[] bitboards, ChessPlayer sideToMove, int castlingRights,
+			int enPassantFile) {
+		this(pack(bitboards), sideToMove, castlingRights, enPassantFile,
+				getPlacementKey(bitboards), countPieces(bitboards));
+	}
+
+	private ImmutableChessboard(long[] packed, ChessPlayer sideToMove, int castlingRights,
+			int enPassantFile, long placementKey, long pieceCounts) {
+		super(sideToMove, castlingRights, enPassantFile, placementKey, pieceCounts);
+		this.ranks1And2 = packed[0];
+		this.ranks3And4 = packed[1];
+		this.ranks5And6 = packed[2];
+		this.ranks7And8 = packed[3];
+	}
+
+	/**
+	 * Returns the board with the pieces of the given bitboards, indexed by
+	 * {@link Chessboard#bitboardIndex}, whose Zobrist key and piece counts are already known.
+	 */
+	static ImmutableChessboard fromBitboards(long[] bitboards, ChessPlayer sideToMove,
+			int castlingRights, int enPassantFile, long placementKey, long pieceCounts) {
+		return new ImmutableChessboard(pack(bitboards), sideToMove, castlingRights,
+				enPassantFile, placementKey, pieceCounts);
+	}
+
+	/**
+	 * Returns the board with a placement copied by {@link Chessboard#copyPlacementTo(byte[])}.
+	 */
+	static ImmutableChessboard fromPlacement(byte[] placement) {
+		checkArgument(placement.length == PLACEMENT_LENGTH, "placement has the wrong length");
+		long[] bitboards = new long[BITBOARDS];
+		for (int square = 0; square < SQUARES; square++) {
+			if (placement[square] != 0) {
+				bitboards[placement[square] - 1] |= 1L << square;
+			}
+		}
+		return new ImmutableChessboard(bitboards,
+				ChessPlayer.values()[placement[SQUARES] >> 4],
+				placement[SQUARES] & 0xf, placement[SQUARES + 1] - 1);
+	}
+
+	private static long[] toBitboards(ImmutableSet<ImmutableChessPiece> pieces) {
+		long[] bitboards = new long[BITBOARDS];
+		long occupied = 0;
+		for (ChessPiece piece : pieces) {
+			int square = piece.getSquare();
+			checkArgument(square >= 0, "piece is not on the board: %s", piece);
+			checkArgument((occupied & (1L << square)) == 0,
+					"two pieces on the same square: %s", piece);
+			occupied |= 1L << square;
+			bitboards[bitboardIndex(piece.getType(), piece.owner)] |= 1L << square;
+		}
+		return bitboards;
+	}
+
+	private static long[] pack(long[] bitboards) {
+		long[] packed = new long[SQUARES * BITS_PER_SQUARE / Long.SIZE];
+		for (int index = 0; index < BITBOARDS; index++) {
+			for (long remaining = bitboards[index]; remaining != 0; remaining &= remaining - 1) {
+				int square = Long.numberOfTrailingZeros(remaining);
+				packed[square / 16] |= (long) (index + 1) << (BITS_PER_SQUARE * (square % 16));
+			}
+		}
+		return packed;
+	}
+
+	private static long getPlacementKey(long[] bitboards) {
+		long key = 0;
+		for (int index = 0; index < BITBOARDS; index++) {
+			for (long remaining = bitboards[index]; remaining != 0; remaining &= remaining - 1) {
+				key ^= ZobristKeys.piece(index, Long.numberOfTrailingZeros(remaining));
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Returns the packed squares holding the given square: squares 0-15 (ranks 1 and 2)
+	 * are in the first long, and so on.
+	 */
+	private long packedSquares(int square) {
+		switch (square / 16) {
+			case 0:
+				return ranks1And2;
+			case 1:
+				return ranks3And4;
+			case 2:
+				return ranks5And6;
+			default:
+				return ranks7And8;
+		}
+	}
+
+	/**
+	 * Returns the encoded piece on the square, or 0 if it is empty.
+	 */
+	private int getCode(int square) {
+		return (int) (packedSquares(square) >>> (BITS_PER_SQUARE * (square % 16))) & SQUARE_MASK;
+	}
+
+	/**
+	 * Returns the unpacked bitboards, occupancy and attacked squares of this board,
+	 * unpacking them the first time.
+	 */
+	private long[] getUnpacked() {
+		long[] result = unpacked;
+		if (result == null) {
+			result = new long[ALL_OCCUPIED + 1];
+			long[] packed = {ranks1And2, ranks3And4, ranks5And6, ranks7And8};
+			for (int i = 0; i < packed.length; i++) {
+				// Skip to each nonempty square, four bits at a time:
+				for (long remaining = packed[i]; remaining != 0; ) {
+					int shift = Long.numberOfTrailingZeros(remaining) & ~(BITS_PER_SQUARE - 1);
+					int code = (int) (remaining >>> shift) & SQUARE_MASK;
+					result[code - 1] |= 1L << (16 * i + shift / BITS_PER_SQUARE);
+					remaining &= ~((long) SQUARE_MASK << shift);
+				}
+			}
+			for (int index = 0; index < BITBOARDS; index++) {
+				result[OCCUPIED + index / PIECE_TYPES] |= result[index];
+			}
+			result[ALL_OCCUPIED] = result[OCCUPIED] | result[OCCUPIED + 1];
+			for (ChessPlayer player : ChessPlayer.values()) {
+				result[ATTACKED + player.ordinal()] =
+						getAttackedSquares(result, result[ALL_OCCUPIED], player);
+			}
+			unpacked = result;
+		}
+		return result;
+	}
+
+	@Override
+	public ImmutableSet<ImmutableChessPiece> getPieces() {
+		ImmutableSet.Builder<ImmutableChessPiece> pieces = ImmutableSet.builder();
+		for (int square = 0; square < SQUARES; square++) {
+			int code = getCode(square);
+			if (code != 0) {
+				pieces.add(ImmutableChessPiece.of(code - 1, square));
+			}
+		}
+		return pieces.build();
+	}
+
+	@Override
+	@Nullable public ImmutableChessPiece getPieceAtSquare(int square) {
+		checkArgument(square >= 0 && square < SQUARES, "square is not on the board");
+		int code = getCode(square);
+		return (code == 0) ? null : ImmutableChessPiece.of(code - 1, square);
+	}
+
+	@Override
+	int getMovingPieceSquare(ChessPieceType type, ChessPlayer player, int destinationSquare,
+			int optionalRank, int optionalFile, boolean isCapture) {
+		long[] bitboards = getUnpacked();
+		return getMovingPieceSquare(bitboards, bitboards[ALL_OCCUPIED], type, player,
+				destinationSquare, optionalRank, optionalFile, isCapture);
+	}
+
+	@Override
+	public boolean isKingInCheck(ChessPlayer kingOwner) {
+		long king = getBitboard(bitboardIndex(ChessPieceType.KING, kingOwner));
+		checkState(king != 0, "king should not be null");
+		return (getAttackedSquares(other(kingOwner)) & king) != 0;
+	}
+
+	@Override
+	boolean isSideToMoveInCheck() {
+		ChessPlayer sideToMove = getSideToMove();
+		long king = getBitboard(bitboardIndex(ChessPieceType.KING, sideToMove));
+		return (getAttackedSquares(other(sideToMove)) & king) != 0;
+	}
+
+	@Override
+	public boolean isLocationThreatenedBy(ChessboardCoordinates location, ChessPlayer player) {
+		int square = location.getSquare();
+		checkArgument(square >= 0, "location is not on the board");
+		return (getAttackedSquares(player) & (1L << square)) != 0;
+	}
+
+	@Override
+	public boolean isSquareThreatenedBy(int square, ChessPlayer player) {
+		checkArgument(square >= 0 && square < SQUARES, "square is not on the board");
+		return (getAttackedSquares(player) & (1L << square)) != 0;
+	}
+
+	/**
+	 * Returns the bitboard of every square attacked by the player's pieces. Since the
+	 * board never changes, the attacks for both players are computed once and kept.
+	 */
+	@Override
+	public long getAttackedSquares(ChessPlayer player) {
+		return getUnpacked()[ATTACKED + player.ordinal()];
+	}
+
+	@Override
+	public long getOccupiedSquares(ChessPlayer player) {
+		return getUnpacked()[OCCUPIED + player.ordinal()];
+	}
+
+	@Override
+	long getBitboard(int index) {
+		return getUnpacked()[index];
+	}
+
+	@Override
+	void copyPlacementTo(byte[] placement) {
+		checkArgument(placement.length == PLACEMENT_LENGTH, "placement has the wrong length");
+		for (int square = 0; square < SQUARES; square++) {
+			placement[square] = (byte) getCode(square);
+		}
+		placement[SQUARES] = (byte) ((getSideToMove().ordinal() << 4) | getCastlingRights());
+		placement[SQUARES + 1] = (byte) (getEnPassantFile() + 1);
+	}
+
+	@Override
+	public void acceptMove(ChessMove move) {
+		throw new IllegalArgumentException("cannot mutate board");
+	}
+
+	@Override
+	void makeMove(short packedMove) {
+		throw new IllegalArgumentException("cannot mutate board");
+	}
+
+	@Override
+	void playMove(short packedMove) {
+		throw new IllegalArgumentException("cannot mutate board");
+	}
+
+	@Override
+	void unmakeMove() {
+		throw new IllegalArgumentException("cannot mutate board");
+	}
+
+	@Override
+	public ImmutableChessboard asImmutable() {
+		return this;
 	}
 
 	/**
@@ -22,7 +301,7 @@ public class ImmutableChessboard extends Chessboard {
 	 */
 	public void printSelf() {
 		String[][] board = new String[8][8];
-		for (ChessPiece piece : pieces) {
+		for (ChessPiece piece : getPieces()) {
 			int rank = piece.getPosition().rank;
 			int file = piece.getPosition().file;
 			String name = piece.getType().abbreviation;
@@ -60,19 +339,32 @@ public class ImmutableChessboard extends Chessboard {
 		if (getClass() != other.getClass()) {
 			return false;
 		}
+		// Boards are equal if their squares and the state of the position are. Different
+		// placements almost always have different Zobrist keys, so those are compared
+		// first, but since keys can collide the packed squares are compared as well.
 		final ImmutableChessboard that = (ImmutableChessboard) other;
-		return Objects.equal(this.pieces, that.pieces);
+		return this.getPlacementKey() == that.getPlacementKey()
+				&& this.ranks1And2 == that.ranks1And2
+				&& this.ranks3And4 == that.ranks3And4
+				&& this.ranks5And6 == that.ranks5And6
+				&& this.ranks7And8 == that.ranks7And8
+				&& this.getSideToMove() == that.getSideToMove()
+				&& this.getCastlingRights() == that.getCastlingRights()
+				&& this.getEnPassantFile() == that.getEnPassantFile();
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hashCode(this.pieces);
+		return Longs.hashCode(getPlacementKey());
 	}
 
 	@Override
 	public String toString() {
 		return Objects.toStringHelper(this)
-				.add("pieces", pieces)
+				.add("pieces", getPieces())
+				.add("sideToMove", getSideToMove())
+				.add("castlingRights", getCastlingRights())
+				.add("enPassantFile", getEnPassantFile())
 				.toString();
 	}
 }
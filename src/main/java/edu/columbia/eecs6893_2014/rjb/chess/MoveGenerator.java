@@ -0,0 +1,183 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Generates the legal moves of the side to move on a {@link Chessboard}, as moves
+ * packed by {@link ChessMove#pack(ChessMove)}, including castling (as the king's move),
+ * en passant and promotions.
+ *<p>
+ * Moves are written into a buffer supplied by the caller, so generating moves doesn't
+ * allocate. Pseudo-legal moves are generated from the bitboards and {@link AttackTables},
+ * and each one is then checked with {@link Chessboard#makeMove(short)} to see whether it
+ * leaves the mover's king in check.
+ */
+public final class MoveGenerator {
+	/**
+	 * Large enough for the moves of any legal position.
+	 */
+	public static final int MAX_MOVES = 256;
+
+	private static final ChessPieceType[] PROMOTIONS = {
+			ChessPieceType.QUEEN, ChessPieceType.ROOK, ChessPieceType.BISHOP, ChessPieceType.KNIGHT};
+
+	// Squares which must be empty, and which must not be attacked, for each way to castle:
+	private static final long WHITE_KINGSIDE_EMPTY = (1L << 5) | (1L << 6);
+	private static final long WHITE_QUEENSIDE_EMPTY = (1L << 1) | (1L << 2) | (1L << 3);
+	private static final long BLACK_KINGSIDE_EMPTY = WHITE_KINGSIDE_EMPTY << 56;
+	private static final long BLACK_QUEENSIDE_EMPTY = WHITE_QUEENSIDE_EMPTY << 56;
+
+	/**
+	 * No public constructor; use the static methods.
+	 */
+	private MoveGenerator() {
+	}
+
+	/**
+	 * Writes the legal moves of the side to move into the buffer, which must hold at
+	 * least {@link #MAX_MOVES} moves, and returns how many there are.
+	 *<p>
+	 * The board is used to try out moves, but is left as it was.
+	 */
+	public static int generateLegalMoves(Chessboard board, short[] moves) {
+		checkArgument(moves.length >= MAX_MOVES, "buffer must hold at least %s moves",
+				MAX_MOVES);
+		ChessPlayer player = board.getSideToMove();
+		int count = generatePseudoLegalMoves(board, player, moves);
+		int legalCount = 0;
+		for (int i = 0; i < count; i++) {
+			board.makeMove(moves[i]);
+			boolean isLegal = !board.isKingInCheck(player);
+			board.unmakeMove();
+			if (isLegal) {
+				moves[legalCount++] = moves[i];
+			}
+		}
+		return legalCount;
+	}
+
+	/**
+	 * Writes the moves of the player's pieces which follow the rules of movement,
+	 * but may leave the player's king in check, and returns how many there are.
+	 */
+	private static int generatePseudoLegalMoves(Chessboard board, ChessPlayer player,
+			short[] moves) {
+		ChessPlayer opponent = Chessboard.other(player);
+		long own = board.getOccupiedSquares(player);
+		long opponents = board.getOccupiedSquares(opponent);
+		long occupied = own | opponents;
+		int count = 0;
+
+		for (long knights = board.getBitboard(Chessboard.bitboardIndex(ChessPieceType.KNIGHT,
+				player)); knights != 0; knights &= knights - 1) {
+			int origin = Long.numberOfTrailingZeros(knights);
+			count = addMoves(moves, count, origin, AttackTables.knightAttacks(origin) & ~own,
+					opponents);
+		}
+		long queens = board.getBitboard(Chessboard.bitboardIndex(ChessPieceType.QUEEN, player));
+		for (long bishops = queens | board.getBitboard(Chessboard.bitboardIndex(
+				ChessPieceType.BISHOP, player)); bishops != 0; bishops &= bishops - 1) {
+			int origin = Long.numberOfTrailingZeros(bishops);
+			count = addMoves(moves, count, origin,
+					AttackTables.bishopAttacks(origin, occupied) & ~own, opponents);
+		}
+		for (long rooks = queens | board.getBitboard(Chessboard.bitboardIndex(
+				ChessPieceType.ROOK, player)); rooks != 0; rooks &= rooks - 1) {
+			int origin = Long.numberOfTrailingZeros(rooks);
+			count = addMoves(moves, count, origin,
+					AttackTables.rookAttacks(origin, occupied) & ~own, opponents);
+		}
+
+		long king = board.getBitboard(Chessboard.bitboardIndex(ChessPieceType.KING, player));
+		if (king != 0) {
+			int origin = Long.numberOfTrailingZeros(king);
+			count = addMoves(moves, count, origin, AttackTables.kingAttacks(origin) & ~own,
+					opponents);
+			count = addCastling(board, player, origin, occupied, moves, count);
+		}
+
+		return addPawnMoves(board, player, occupied, opponents, moves, count);
+	}
+
+	private static int addMoves(short[] moves, int count, int origin, long destinations,
+			long opponents) {
+		for (; destinations != 0; destinations &= destinations - 1) {
+			int destination = Long.numberOfTrailingZeros(destinations);
+			moves[count++] = ChessMove.pack(origin, destination, /* promotion */ null,
+					/* isCapture */ (opponents & (1L << destination)) != 0);
+		}
+		return count;
+	}
+
+	private static int addCastling(Chessboard board, ChessPlayer player, int kingSquare,
+			long occupied, short[] moves, int count) {
+		boolean isWhite = player == ChessPlayer.WHITE;
+		int rights = board.getCastlingRights()
+				& (isWhite ? Chessboard.WHITE_KINGSIDE | Chessboard.WHITE_QUEENSIDE
+						: Chessboard.BLACK_KINGSIDE | Chessboard.BLACK_QUEENSIDE);
+		if (rights == 0 || kingSquare != (isWhite ? 4 : 60) || board.isKingInCheck(player)) {
+			return count;
+		}
+		ChessPlayer opponent = Chessboard.other(player);
+		int kingside = isWhite ? Chessboard.WHITE_KINGSIDE : Chessboard.BLACK_KINGSIDE;
+		if ((rights & kingside) != 0
+				&& (occupied & (isWhite ? WHITE_KINGSIDE_EMPTY : BLACK_KINGSIDE_EMPTY)) == 0
+				&& !board.isSquareThreatenedBy(kingSquare + 1, opponent)
+				&& !board.isSquareThreatenedBy(kingSquare + 2, opponent)) {
+			moves[count++] = ChessMove.pack(kingSquare, kingSquare + 2, /* promotion */ null,
+					/* isCapture */ false);
+		}
+		int queenside = isWhite ? Chessboard.WHITE_QUEENSIDE : Chessboard.BLACK_QUEENSIDE;
+		if ((rights & queenside) != 0
+				&& (occupied & (isWhite ? WHITE_QUEENSIDE_EMPTY : BLACK_QUEENSIDE_EMPTY)) == 0
+				&& !board.isSquareThreatenedBy(kingSquare - 1, opponent)
+				&& !board.isSquareThreatenedBy(kingSquare - 2, opponent)) {
+			moves[count++] = ChessMove.pack(kingSquare, kingSquare - 2, /* promotion */ null,
+					/* isCapture */ false);
+		}
+		return count;
+	}
+
+	private static int addPawnMoves(Chessboard board, ChessPlayer player, long occupied,
+			long opponents, short[] moves, int count) {
+		boolean isWhite = player == ChessPlayer.WHITE;
+		int forward = isWhite ? 8 : -8;
+		int startRank = isWhite ? 1 : 6;
+		long enPassantTarget = 0;
+		if (board.getEnPassantFile() >= 0) {
+			enPassantTarget = 1L << ((isWhite ? 5 : 2) * 8 + board.getEnPassantFile());
+		}
+
+		for (long pawns = board.getBitboard(Chessboard.bitboardIndex(ChessPieceType.PAWN,
+				player)); pawns != 0; pawns &= pawns - 1) {
+			int origin = Long.numberOfTrailingZeros(pawns);
+			int oneForward = origin + forward;
+			if ((occupied & (1L << oneForward)) == 0) {
+				count = addPawnMove(moves, count, origin, oneForward, /* isCapture */ false);
+				int twoForward = oneForward + forward;
+				if (origin / 8 == startRank && (occupied & (1L << twoForward)) == 0) {
+					count = addPawnMove(moves, count, origin, twoForward, /* isCapture */ false);
+				}
+			}
+			for (long captures = AttackTables.pawnAttacks(player, origin)
+					& (opponents | enPassantTarget); captures != 0; captures &= captures - 1) {
+				count = addPawnMove(moves, count, origin, Long.numberOfTrailingZeros(captures),
+						/* isCapture */ true);
+			}
+		}
+		return count;
+	}
+
+	private static int addPawnMove(short[] moves, int count, int origin, int destination,
+			boolean isCapture) {
+		int rank = destination / 8;
+		if (rank == 0 || rank == 7) {
+			for (ChessPieceType promotion : PROMOTIONS) {
+				moves[count++] = ChessMove.pack(origin, destination, promotion, isCapture);
+			}
+		} else {
+			moves[count++] = ChessMove.pack(origin, destination, /* promotion */ null, isCapture);
+		}
+		return count;
+	}
+}
@@ -0,0 +1,119 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.apache.mahout.math.DenseVector;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+
+import edu.columbia.eecs6893_2014.rjb.classifier.Vectorizer.Vector;
+
+/**
+ * Turns each {@link ChessGame} into one {@link Vector} per requested ply, using the
+ * board features of a {@link BoardVectorizer}. The plies are either counted back
+ * from the end of the game, like {@link ChessGameVectorizer#getBoard(ChessGame, int)},
+ * or counted from the start, like {@link ChessGame#getBoardState(int)}.
+ *<p>
+ * Every board needed is kept during a single replay of the game, so comparing a
+ * vectorizer across many plies (for example, accuracy against turns from the end)
+ * costs one parse rather than one per ply. Each vector is tagged with the ply it was
+ * taken at; see {@link ChessGameFanOut#addMatrices(MultiPlyVectorizer)} to collect
+ * them into a {@link edu.columbia.eecs6893_2014.rjb.classifier.FeatureMatrix} per ply.
+ */
+public final class MultiPlyVectorizer
+		implements PgnParser.PlySelectingConverter<ImmutableList<MultiPlyVectorizer.PlyVector>> {
+	private final BoardVectorizer vectorizer;
+	private final boolean isFromEnd;
+	private final ImmutableList<Integer> plies;
+	private final PlySelection plySelection;
+
+	/**
+	 * A vector for one ply of a game, tagged with that ply.
+	 */
+	public static final class PlyVector extends Vector {
+		// The turns from last, or the ply from the start, as it was requested.
+		public final int ply;
+
+		private PlyVector(String category, org.apache.mahout.math.Vector vector, int ply) {
+			super(category, vector);
+			this.ply = ply;
+		}
+	}
+
+	private MultiPlyVectorizer(BoardVectorizer vectorizer, boolean isFromEnd, int[] plies,
+			PlySelection plySelection) {
+		this.vectorizer = checkNotNull(vectorizer, "vectorizer");
+		this.isFromEnd = isFromEnd;
+		this.plies = ImmutableList.copyOf(Ints.asList(plies));
+		this.plySelection = plySelection;
+	}
+
+	/**
+	 * Returns a vectorizer for the given turns from the end of each game. Only the
+	 * board features of the given vectorizer are used, not its own turn.
+	 */
+	public static MultiPlyVectorizer fromEnd(BoardVectorizer vectorizer, int... turnsFromLast) {
+		PlySelection plySelection = PlySelection.none();
+		for (int turns : turnsFromLast) {
+			plySelection = plySelection.union(ChessGameVectorizer.fromEnd(turns));
+		}
+		return new MultiPlyVectorizer(vectorizer, /* isFromEnd */ true, turnsFromLast,
+				plySelection);
+	}
+
+	/**
+	 * Returns a vectorizer for the given plies from the start of each game. Games
+	 * which are too short have no vectors for the plies they didn't reach. Only the
+	 * board features of the given vectorizer are used, not its own turn.
+	 */
+	public static MultiPlyVectorizer fromStart(BoardVectorizer vectorizer, int... plies) {
+		return new MultiPlyVectorizer(vectorizer, /* isFromEnd */ false, plies,
+				PlySelection.fromStart(plies));
+	}
+
+	/**
+	 * Returns the requested plies, in the order their vectors are returned.
+	 */
+	public ImmutableList<Integer> plies() {
+		return plies;
+	}
+
+	public ImmutableList<String> categories() {
+		return vectorizer.categories();
+	}
+
+	public ImmutableList<String> features() {
+		return vectorizer.features();
+	}
+
+	@Override
+	public ImmutableList<PlyVector> convert(ChessGame game) {
+		String category = vectorizer.getCategory(game);
+		int featureCount = vectorizer.features().size();
+		ImmutableList.Builder<PlyVector> vectors = ImmutableList.builder();
+		for (int ply : plies) {
+			ImmutableChessboard board;
+			if (isFromEnd) {
+				board = ChessGameVectorizer.getBoard(game, ply);
+			} else if (ply < game.getPlyCount()) {
+				board = game.getBoardState(ply);
+			} else {
+				continue;
+			}
+			double[] values = new double[featureCount];
+			vectorizer.writeFeatures(board, values, 0);
+			vectors.add(new PlyVector(category, new DenseVector(values, /* shallowCopy */ true),
+					ply));
+		}
+		return vectors.build();
+	}
+
+	/**
+	 * Only the boards used for the vectors are kept.
+	 */
+	@Override
+	public PlySelection getPlySelection() {
+		return plySelection;
+	}
+}
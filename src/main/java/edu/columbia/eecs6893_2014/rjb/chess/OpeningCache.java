@@ -0,0 +1,187 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * A trie of the opening moves of the games parsed so far, keyed by SAN move, with
+ * the board after each move. Many games share their first moves, so a
+ * {@link ChessGame.Builder} follows the trie for as long as its game does, reusing
+ * the parsed moves and board snapshots, and only replays moves from the first move
+ * which isn't in the trie.
+ *<p>
+ * Only the first {@link #DEFAULT_MAX_PLIES} plies of each game are added, and once
+ * the trie holds {@link #DEFAULT_MAX_NODES} moves, the least recently used ones are
+ * evicted, along with the moves which follow them. This class is not thread-safe;
+ * parsers running in parallel should each use their own cache.
+ */
+final class OpeningCache {
+	static final int DEFAULT_MAX_PLIES = 20;
+	static final int DEFAULT_MAX_NODES = 1 << 15;
+
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	private final int maxPlies;
+	private final int maxNodes;
+	// The nodes besides the root also form a circular list through the root, from the
+	// most recently used (root.older) to the least recently used (root.newer).
+	private final Node root;
+	private int size = 0; // The number of nodes besides the root.
+	private long hits = 0;
+	private long misses = 0;
+
+	OpeningCache() {
+		this(DEFAULT_MAX_PLIES, DEFAULT_MAX_NODES);
+	}
+
+	OpeningCache(int maxPlies, int maxNodes) {
+		checkArgument(maxPlies >= 0, "maxPlies must not be negative");
+		checkArgument(maxNodes >= 0, "maxNodes must not be negative");
+		this.maxPlies = maxPlies;
+		this.maxNodes = maxNodes;
+		this.root = new Node(/* parent */ null, /* sanMove */ "", /* packedMove */ (short) 0,
+				new Chessboard().asImmutable(), /* isCheck */ false);
+		root.newer = root;
+		root.older = root;
+	}
+
+	/**
+	 * A move in the trie, and the board after it; the root is the starting position.
+	 */
+	static final class Node {
+		final String sanMove;
+		final short packedMove;
+		final ImmutableChessboard board;
+		final boolean isCheck; // Whether the move gave check.
+		final int ply; // The number of moves from the starting position.
+		@Nullable private Node parent; // Null for the root, and once evicted.
+		private Node[] children = NO_CHILDREN;
+		private int childCount = 0;
+		private Node newer;
+		private Node older;
+
+		private Node(@Nullable Node parent, String sanMove, short packedMove,
+				ImmutableChessboard board, boolean isCheck) {
+			this.parent = parent;
+			this.sanMove = sanMove;
+			this.packedMove = packedMove;
+			this.board = board;
+			this.isCheck = isCheck;
+			this.ply = (parent == null) ? 0 : parent.ply + 1;
+		}
+	}
+
+	/**
+	 * Returns the node of the starting position.
+	 */
+	Node getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns the node for a move from the node's position, or null if it isn't cached.
+	 * The move is only read during this call, so it may be a reused buffer.
+	 */
+	@Nullable Node getChild(Node node, CharSequence sanMove) {
+		for (int i = 0; i < node.childCount; i++) {
+			Node child = node.children[i];
+			if (child.sanMove.contentEquals(sanMove)) {
+				hits++;
+				unlink(child);
+				linkAsNewest(child);
+				return child;
+			}
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Adds a move from the node's position, with the board after it and whether it gave
+	 * check, and returns its node; returns null if the move is too far into the game to
+	 * be cached, or the node has been evicted.
+	 */
+	@Nullable Node addChild(Node node, CharSequence sanMove, short packedMove,
+			ImmutableChessboard board, boolean isCheck) {
+		checkNotNull(board, "board");
+		if (node.ply >= maxPlies || (node != root && node.parent == null) || maxNodes == 0) {
+			return null;
+		}
+		Node child = new Node(node, sanMove.toString(), packedMove, board, isCheck);
+		if (node.childCount == node.children.length) {
+			node.children = Arrays.copyOf(node.children, Math.max(2 * node.childCount, 2));
+		}
+		node.children[node.childCount++] = child;
+		linkAsNewest(child);
+		size++;
+		while (size > maxNodes) {
+			evict(root.newer);
+		}
+		// The node may have been the least recently used move, and so evicted along
+		// with the new child.
+		return (child.parent == null) ? null : child;
+	}
+
+	/**
+	 * Returns the number of cached moves.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of moves found in the cache by {@link #getChild}.
+	 */
+	long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of moves not found in the cache by {@link #getChild}.
+	 */
+	long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Removes a node and the nodes which follow it from the trie.
+	 */
+	private void evict(Node node) {
+		Node parent = node.parent;
+		for (int i = 0; i < parent.childCount; i++) {
+			if (parent.children[i] == node) {
+				parent.children[i] = parent.children[--parent.childCount];
+				parent.children[parent.childCount] = null;
+				break;
+			}
+		}
+		detach(node);
+	}
+
+	private void detach(Node node) {
+		for (int i = 0; i < node.childCount; i++) {
+			detach(node.children[i]);
+		}
+		node.children = NO_CHILDREN;
+		node.childCount = 0;
+		node.parent = null;
+		unlink(node);
+		size--;
+	}
+
+	private void unlink(Node node) {
+		node.newer.older = node.older;
+		node.older.newer = node.newer;
+	}
+
+	private void linkAsNewest(Node node) {
+		node.newer = root;
+		node.older = root.older;
+		root.older.newer = node;
+		root.older = node;
+	}
+}
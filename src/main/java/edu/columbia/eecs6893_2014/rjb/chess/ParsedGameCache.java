@@ -0,0 +1,245 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A binary cache of the games parsed from a PGN file, so that later runs can replay
+ * the games without any SAN parsing; see {@link PgnParser#parseCached(File,
+ * PgnParser.ChessGameConverter)}.
+ *<p>
+ * The cache is stored next to the PGN file with an added ".games" extension, and
+ * is keyed by a hash of the PGN file's contents. After a short file header, each
+ * game is stored as a header block (its tag pairs and winner) followed by its moves,
+ * each packed into a fixed 16 bits by {@link ChessMove#pack(ChessMove)}.
+ */
+class ParsedGameCache {
+	private static final int MAGIC = 0x50474e43; // "PGNC"
+	private static final int VERSION = 1;
+	private static final int END_OF_GAMES = -1;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// Winners, stored as one byte each:
+	private static final byte WINNER_NONE = 0;
+	private static final byte WINNER_WHITE = 1;
+	private static final byte WINNER_BLACK = 2;
+
+	/**
+	 * No public constructor; use the static methods.
+	 */
+	private ParsedGameCache() {
+	}
+
+	/**
+	 * Returns the cache file for a PGN file.
+	 */
+	static File cacheFileFor(File pgnFile) {
+		return new File(pgnFile.getPath() + ".games");
+	}
+
+	/**
+	 * Returns the hash of a PGN file's contents, which keys its cache.
+	 */
+	static HashCode hash(File pgnFile) {
+		try {
+			return Files.hash(pgnFile, Hashing.murmur3_128());
+		} catch (IOException exception) {
+			throw new RuntimeException("error hashing file", exception);
+		}
+	}
+
+	/**
+	 * Returns true if the cache file exists and was written for a PGN file with the given hash.
+	 */
+	static boolean isUpToDate(File cacheFile, HashCode pgnHash) {
+		if (!cacheFile.isFile()) {
+			return false;
+		}
+		try {
+			DataInputStream input = new DataInputStream(new FileInputStream(cacheFile));
+			try {
+				return input.readInt() == MAGIC
+						&& input.readInt() == VERSION
+						&& Arrays.equals(readHash(input), pgnHash.asBytes());
+			} finally {
+				input.close();
+			}
+		} catch (EOFException exception) {
+			return false; // The cache file was truncated.
+		} catch (IOException exception) {
+			throw new RuntimeException("error reading cache", exception);
+		}
+	}
+
+	/**
+	 * Replays every game in the cache file, and hands the output
+	 * generated using each game to the sink.
+	 */
+	static <A> void replay(File cacheFile, PgnParser.ChessGameConverter<A> converter,
+			PgnParser.ChessGameSink<? super A> sink) {
+		checkNotNull(converter, "converter");
+		checkNotNull(sink, "sink");
+		PlySelection plySelection = PgnParser.plySelection(converter);
+		Interner<String> interner = Interners.newStrongInterner();
+		try {
+			DataInputStream input = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(cacheFile), BUFFER_SIZE));
+			try {
+				checkArgument(input.readInt() == MAGIC, "not a cache file: " + cacheFile);
+				checkArgument(input.readInt() == VERSION, "unsupported cache version");
+				readHash(input);
+				for (int tagCount; (tagCount = input.readInt()) != END_OF_GAMES; /* do nothing */ ) {
+					ChessGame game = readGame(input, tagCount, plySelection, interner);
+					sink.accept(converter.convert(game));
+				}
+			} finally {
+				input.close();
+			}
+		} catch (IOException exception) {
+			throw new RuntimeException("error reading cache", exception);
+		}
+	}
+
+	private static ChessGame readGame(DataInputStream input, int tagCount,
+			PlySelection plySelection, Interner<String> interner) throws IOException {
+		ChessGame.Builder game = new ChessGame.Builder(plySelection);
+		for (int i = 0; i < tagCount; i++) {
+			String key = interner.intern(input.readUTF());
+			game.addMetadata(key, interner.intern(input.readUTF()));
+		}
+		byte winner = input.readByte();
+		int moveCount = input.readInt();
+		ChessPlayer player = game.getNextToMove();
+		for (int i = 0; i < moveCount; i++) {
+			game.addPackedMove(input.readShort(), player);
+			player = (player == ChessPlayer.WHITE) ? ChessPlayer.BLACK : ChessPlayer.WHITE;
+		}
+		switch (winner) {
+			case WINNER_WHITE:
+				game.setWinner(ChessPlayer.WHITE);
+				break;
+			case WINNER_BLACK:
+				game.setWinner(ChessPlayer.BLACK);
+				break;
+			default:
+				game.setWinner(null);
+		}
+		return game.build();
+	}
+
+	private static byte[] readHash(DataInputStream input) throws IOException {
+		byte[] hash = new byte[input.readInt()];
+		input.readFully(hash);
+		return hash;
+	}
+
+	/**
+	 * Writes games to a new cache file. The games are written to a temporary file,
+	 * which only replaces the cache file once {@link #commit()} is called.
+	 */
+	static class Writer implements Closeable {
+		private final File cacheFile;
+		private final File temporaryFile;
+		private final DataOutputStream output;
+		private boolean closed = false;
+
+		Writer(File cacheFile, HashCode pgnHash) {
+			this.cacheFile = checkNotNull(cacheFile, "cacheFile");
+			this.temporaryFile = new File(cacheFile.getPath() + ".tmp");
+			try {
+				this.output = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(temporaryFile), BUFFER_SIZE));
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				byte[] hash = pgnHash.asBytes();
+				output.writeInt(hash.length);
+				output.write(hash);
+			} catch (IOException exception) {
+				throw new RuntimeException("error writing cache", exception);
+			}
+		}
+
+		/**
+		 * Appends a game to the cache.
+		 */
+		void write(ChessGame game) {
+			checkState(!closed, "writer is closed");
+			try {
+				output.writeInt(game.metadata.size());
+				for (Map.Entry<String, String> tag : game.metadata.entrySet()) {
+					output.writeUTF(tag.getKey());
+					output.writeUTF(tag.getValue());
+				}
+				if (game.winner == ChessPlayer.WHITE) {
+					output.writeByte(WINNER_WHITE);
+				} else if (game.winner == ChessPlayer.BLACK) {
+					output.writeByte(WINNER_BLACK);
+				} else {
+					output.writeByte(WINNER_NONE);
+				}
+				output.writeInt(game.packedMoves.length);
+				for (short packedMove : game.packedMoves) {
+					output.writeShort(packedMove);
+				}
+			} catch (IOException exception) {
+				throw new RuntimeException("error writing cache", exception);
+			}
+		}
+
+		/**
+		 * Finishes the cache, and moves it into place.
+		 */
+		void commit() {
+			checkState(!closed, "writer is closed");
+			try {
+				output.writeInt(END_OF_GAMES);
+				output.close();
+				closed = true;
+				if (cacheFile.exists() && !cacheFile.delete()) {
+					throw new IOException("could not delete old cache: " + cacheFile);
+				}
+				Files.move(temporaryFile, cacheFile);
+			} catch (IOException exception) {
+				throw new RuntimeException("error writing cache", exception);
+			}
+		}
+
+		/**
+		 * Discards the cache unless it has been committed.
+		 */
+		@Override
+		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				output.close();
+			} catch (IOException exception) {
+				throw new RuntimeException("could not close cache", exception);
+			} finally {
+				temporaryFile.delete();
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Counts the leaf nodes of the legal move tree to a fixed depth ("perft"), which is the
+ * standard way to test a move generator: the counts for well-known positions are
+ * published, and any bug in move generation or in making and unmaking moves changes them.
+ *<p>
+ * Running this class checks the reference positions below and reports nodes per second,
+ * which also makes it a throughput benchmark for the board representation. The optional
+ * argument is the maximum depth to search (4 by default).
+ */
+public final class Perft {
+	/**
+	 * A position given in Forsyth-Edwards Notation, with its published node counts
+	 * for depths 1, 2, 3, and so on.
+	 */
+	static final class ReferencePosition {
+		final String name;
+		final String fen;
+		final long[] nodeCounts;
+
+		ReferencePosition(String name, String fen, long... nodeCounts) {
+			this.name = name;
+			this.fen = fen;
+			this.nodeCounts = nodeCounts;
+		}
+	}
+
+	static final ImmutableList<ReferencePosition> REFERENCE_POSITIONS = ImmutableList.of(
+			new ReferencePosition("initial",
+					"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq -",
+					20, 400, 8902, 197281, 4865609),
+			new ReferencePosition("kiwipete",
+					"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq -",
+					48, 2039, 97862, 4085603),
+			new ReferencePosition("position 3",
+					"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - -",
+					14, 191, 2812, 43238, 674624),
+			new ReferencePosition("position 4",
+					"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq -",
+					6, 264, 9467, 422333),
+			new ReferencePosition("position 5",
+					"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ -",
+					44, 1486, 62379, 2103487));
+
+	/**
+	 * No public constructor; use the static methods.
+	 */
+	private Perft() {
+	}
+
+	public static void main(String[] args) {
+		int maxDepth = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+		boolean allCorrect = true;
+		for (ReferencePosition position : REFERENCE_POSITIONS) {
+			for (int depth = 1; depth <= Math.min(maxDepth, position.nodeCounts.length);
+					depth++) {
+				Chessboard board = Fen.parse(position.fen);
+				long start = System.nanoTime();
+				long nodes = perft(board, depth);
+				long elapsed = Math.max(System.nanoTime() - start, 1);
+				long expected = position.nodeCounts[depth - 1];
+				allCorrect &= nodes == expected;
+				System.out.println(String.format(
+						"%-12s depth %d: %,12d nodes (%s), %,.0f nodes/s", position.name, depth, nodes,
+						(nodes == expected) ? "ok" : "expected " + expected,
+						nodes * 1e9 / elapsed));
+			}
+		}
+		if (!allCorrect) {
+			throw new IllegalStateException("node counts don't match the reference counts");
+		}
+	}
+
+	/**
+	 * Returns the number of move sequences of the given length from the board's position.
+	 * The board is left as it was.
+	 */
+	public static long perft(Chessboard board, int depth) {
+		checkArgument(depth >= 0, "depth must not be negative");
+		return perft(board, depth, new short[Math.max(depth, 1)][MoveGenerator.MAX_MOVES]);
+	}
+
+	private static long perft(Chessboard board, int depth, short[][] moveBuffers) {
+		if (depth == 0) {
+			return 1;
+		}
+		short[] moves = moveBuffers[depth - 1];
+		int count = MoveGenerator.generateLegalMoves(board, moves);
+		if (depth == 1) {
+			return count;
+		}
+		long nodes = 0;
+		for (int i = 0; i < count; i++) {
+			board.makeMove(moves[i]);
+			nodes += perft(board, depth - 1, moveBuffers);
+			board.unmakeMove();
+		}
+		return nodes;
+	}
+}
@@ -0,0 +1,114 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Splits a PGN file into chunks of whole games, so that the chunks
+ * can be parsed independently of each other.
+ *<p>
+ * Every chunk except the first starts at the beginning of an
+ * {@code [Event} line, which is always the first tag of a game.
+ */
+class PgnFileSplitter {
+	private static final byte[] GAME_START = {'[', 'E', 'v', 'e', 'n', 't', ' '};
+	private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+	private final long end;
+	private final long targetChunkLength;
+	private final ByteBuffer scanBuffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+	private long nextChunkStart;
+
+	/**
+	 * Splits the file read by the channel into chunks of roughly the given length.
+	 * The channel is not closed by this class.
+	 */
+	PgnFileSplitter(FileChannel channel, long targetChunkLength) throws IOException {
+		this(channel, 0, channel.size(), targetChunkLength);
+	}
+
+	/**
+	 * Splits part of the file read by the channel into chunks of roughly the given
+	 * length. The part should start at the beginning of a game, and end at the
+	 * beginning of a game or at the end of the file.
+	 */
+	PgnFileSplitter(FileChannel channel, long start, long end, long targetChunkLength)
+			throws IOException {
+		checkArgument(targetChunkLength > 0, "targetChunkLength must be positive");
+		checkArgument(0 <= start && start <= end && end <= channel.size(), "invalid range");
+		this.channel = checkNotNull(channel, "channel");
+		this.nextChunkStart = start;
+		this.end = end;
+		this.targetChunkLength = targetChunkLength;
+	}
+
+	boolean hasNextChunk() {
+		return nextChunkStart < end;
+	}
+
+	/**
+	 * Returns the start offset of the next chunk; its end offset is returned
+	 * by {@link #chunkEnd()} once this has been called.
+	 */
+	long nextChunk() throws IOException {
+		long chunkStart = nextChunkStart;
+		nextChunkStart = findGameStart(Math.min(chunkStart + targetChunkLength, end));
+		return chunkStart;
+	}
+
+	/**
+	 * Returns the end offset (exclusive) of the chunk last returned by {@link #nextChunk()}.
+	 */
+	long chunkEnd() {
+		return nextChunkStart;
+	}
+
+	/**
+	 * Returns the offset of the first game starting at or after the given position,
+	 * or the end of the range if there is none.
+	 */
+	private long findGameStart(long position) throws IOException {
+		if (position >= end) {
+			return end;
+		}
+		// A game starts at the beginning of a line, so begin matching one byte
+		// early to find out whether the position itself is at a line start.
+		long bufferStart = Math.max(position - 1, 0);
+		int matched = 0;
+		boolean atLineStart = (bufferStart == 0) && (position == 0);
+		while (bufferStart < end) {
+			scanBuffer.clear();
+			int read = channel.read(scanBuffer, bufferStart);
+			if (read <= 0) {
+				break;
+			}
+			read = (int) Math.min(read, end - bufferStart);
+			for (int i = 0; i < read; i++) {
+				byte next = scanBuffer.get(i);
+				long offset = bufferStart + i;
+				if (offset < position) {
+					atLineStart = (next == '\n');
+					continue;
+				}
+				if (matched > 0 && next == GAME_START[matched]) {
+					matched++;
+					if (matched == GAME_START.length) {
+						return offset - (GAME_START.length - 1);
+					}
+				} else if (atLineStart && next == GAME_START[0]) {
+					matched = 1;
+				} else {
+					matched = 0;
+				}
+				atLineStart = (next == '\n');
+			}
+			bufferStart += read;
+		}
+		return end;
+	}
+}
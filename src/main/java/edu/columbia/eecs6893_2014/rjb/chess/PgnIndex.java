@@ -0,0 +1,369 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An index of the games in a PGN file: where each game starts, how long it is, and
+ * a few of its key tags. With an index, any game can be parsed without parsing the
+ * games before it; see {@link PgnParser#parseGames(File, PgnIndex, java.util.List,
+ * PgnParser.ChessGameConverter)}.
+ *<p>
+ * An index is stored in a compact sidecar file next to the PGN file, named
+ * like the PGN file with an added ".idx" extension. Each game takes up a
+ * fixed-width record of {@value #RECORD_LENGTH} bytes.
+ */
+public class PgnIndex {
+	private static final int MAGIC = 0x50474e49; // "PGNI"
+	private static final int VERSION = 2;
+	private static final int RECORD_LENGTH = 27;
+	private static final int ECO_LENGTH = 4;
+	private static final int MISSING = -1;
+
+	// Results, stored as one byte each:
+	private static final byte RESULT_UNKNOWN = 0;
+	private static final byte RESULT_WHITE = 1;
+	private static final byte RESULT_BLACK = 2;
+	private static final byte RESULT_TIE = 3;
+
+	// Used to check whether the index still matches its PGN file:
+	private final long pgnLength;
+	private final long pgnLastModified;
+
+	// One element per game:
+	private final long[] offsets;
+	private final int[] tagLengths; // See ChessGameHeader.length.
+	private final byte[] results;
+	private final short[] whiteElos;
+	private final short[] blackElos;
+	private final short[] plyCounts;
+	private final int[] dates; // YYYYMMDD, with unknown parts set to 0.
+	private final byte[] ecos; // ECO_LENGTH ASCII bytes per game, padded with 0.
+
+	private PgnIndex(long pgnLength, long pgnLastModified, int size) {
+		this.pgnLength = pgnLength;
+		this.pgnLastModified = pgnLastModified;
+		this.offsets = new long[size];
+		this.tagLengths = new int[size];
+		this.results = new byte[size];
+		this.whiteElos = new short[size];
+		this.blackElos = new short[size];
+		this.plyCounts = new short[size];
+		this.dates = new int[size];
+		this.ecos = new byte[size * ECO_LENGTH];
+	}
+
+	/**
+	 * Builds an index by scanning the headers of every game in a PGN file.
+	 */
+	public static PgnIndex build(File pgnFile) {
+		ImmutableList<ChessGameHeader> headers = PgnParser.parseHeaders(pgnFile);
+		PgnIndex index = new PgnIndex(pgnFile.length(), pgnFile.lastModified(), headers.size());
+		for (int i = 0; i < headers.size(); i++) {
+			index.set(i, headers.get(i));
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the index for a PGN file, reading it from the sidecar file if it is
+	 * up to date, and otherwise building it and writing it to the sidecar file.
+	 */
+	public static PgnIndex forFile(File pgnFile) {
+		File indexFile = indexFileFor(pgnFile);
+		if (indexFile.exists()) {
+			try {
+				PgnIndex index = read(indexFile);
+				if (index.isUpToDate(pgnFile)) {
+					return index;
+				}
+			} catch (IllegalArgumentException exception) {
+				// Written by an older version, so it is rebuilt.
+			}
+		}
+		PgnIndex index = build(pgnFile);
+		index.write(indexFile);
+		return index;
+	}
+
+	/**
+	 * Returns the sidecar file used by {@link #forFile(File)}.
+	 */
+	public static File indexFileFor(File pgnFile) {
+		return new File(pgnFile.getPath() + ".idx");
+	}
+
+	/**
+	 * Returns true if the PGN file hasn't changed since this index was built.
+	 */
+	public boolean isUpToDate(File pgnFile) {
+		return pgnFile.length() == pgnLength && pgnFile.lastModified() == pgnLastModified;
+	}
+
+	/**
+	 * Returns the number of games in the index.
+	 */
+	public int size() {
+		return offsets.length;
+	}
+
+	/**
+	 * Returns where a game starts in the PGN file, in bytes.
+	 */
+	public long getOffset(int gameNumber) {
+		checkElementIndex(gameNumber, size(), "gameNumber");
+		return offsets[gameNumber];
+	}
+
+	/**
+	 * Returns how many bytes of the PGN file a game takes up. Games follow each
+	 * other without gaps, so this is the distance to the start of the next game.
+	 */
+	public int getLength(int gameNumber) {
+		checkElementIndex(gameNumber, size(), "gameNumber");
+		long end = (gameNumber + 1 < size()) ? offsets[gameNumber + 1] : pgnLength;
+		return Ints.checkedCast(end - offsets[gameNumber]);
+	}
+
+	/**
+	 * Returns a header containing only the tags kept in the index:
+	 * Result, WhiteElo, BlackElo, PlyCount, Date and ECO.
+	 * This is enough to use most of the {@link HeaderFilters}.
+	 */
+	public ChessGameHeader getHeader(int gameNumber) {
+		checkElementIndex(gameNumber, size(), "gameNumber");
+		ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+		switch (results[gameNumber]) {
+			case RESULT_WHITE:
+				metadata.put("Result", "1-0");
+				break;
+			case RESULT_BLACK:
+				metadata.put("Result", "0-1");
+				break;
+			case RESULT_TIE:
+				metadata.put("Result", "1/2-1/2");
+				break;
+			default:
+				// Do nothing, the result is unknown.
+		}
+		putNumber(metadata, "WhiteElo", whiteElos[gameNumber]);
+		putNumber(metadata, "BlackElo", blackElos[gameNumber]);
+		putNumber(metadata, "PlyCount", plyCounts[gameNumber]);
+		if (dates[gameNumber] != 0) {
+			metadata.put("Date", formatDate(dates[gameNumber]));
+		}
+		int ecoLength = 0;
+		while (ecoLength < ECO_LENGTH && ecos[gameNumber * ECO_LENGTH + ecoLength] != 0) {
+			ecoLength++;
+		}
+		if (ecoLength > 0) {
+			metadata.put("ECO",
+					new String(ecos, gameNumber * ECO_LENGTH, ecoLength, Charsets.US_ASCII));
+		}
+		return new ChessGameHeader(metadata.build(), offsets[gameNumber],
+				tagLengths[gameNumber]);
+	}
+
+	/**
+	 * Returns the numbers of all games whose indexed headers match the filter.
+	 */
+	public ImmutableList<Integer> find(Predicate<? super ChessGameHeader> filter) {
+		ImmutableList.Builder<Integer> gameNumbers = ImmutableList.builder();
+		for (int i = 0; i < size(); i++) {
+			if (filter.apply(getHeader(i))) {
+				gameNumbers.add(i);
+			}
+		}
+		return gameNumbers.build();
+	}
+
+	private void set(int gameNumber, ChessGameHeader header) {
+		checkArgument(header.length <= Integer.MAX_VALUE, "tag pairs too long");
+		offsets[gameNumber] = header.offset;
+		tagLengths[gameNumber] = (int) header.length;
+
+		String result = header.get("Result");
+		if ("1-0".equals(result)) {
+			results[gameNumber] = RESULT_WHITE;
+		} else if ("0-1".equals(result)) {
+			results[gameNumber] = RESULT_BLACK;
+		} else if ("1/2-1/2".equals(result)) {
+			results[gameNumber] = RESULT_TIE;
+		} else {
+			results[gameNumber] = RESULT_UNKNOWN;
+		}
+
+		whiteElos[gameNumber] = toShort(header.getInteger("WhiteElo"));
+		blackElos[gameNumber] = toShort(header.getInteger("BlackElo"));
+		plyCounts[gameNumber] = toShort(header.getInteger("PlyCount"));
+		dates[gameNumber] = parseDate(header.get("Date"));
+
+		String eco = header.get("ECO");
+		if (eco != null && eco.length() <= ECO_LENGTH) {
+			byte[] ecoBytes = eco.getBytes(Charsets.US_ASCII);
+			System.arraycopy(ecoBytes, 0, ecos, gameNumber * ECO_LENGTH, ecoBytes.length);
+		}
+	}
+
+	/**
+	 * Writes this index to a file, overwriting it if it exists.
+	 */
+	public void write(File indexFile) {
+		try {
+			DataOutputStream output = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(indexFile)));
+			try {
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeLong(pgnLength);
+				output.writeLong(pgnLastModified);
+				output.writeInt(size());
+				for (int i = 0; i < size(); i++) {
+					output.writeLong(offsets[i]);
+					output.writeInt(tagLengths[i]);
+					output.writeByte(results[i]);
+					output.writeShort(whiteElos[i]);
+					output.writeShort(blackElos[i]);
+					output.writeShort(plyCounts[i]);
+					output.writeInt(dates[i]);
+					output.write(ecos, i * ECO_LENGTH, ECO_LENGTH);
+				}
+			} finally {
+				output.close();
+			}
+		} catch (IOException exception) {
+			throw new RuntimeException("error writing index", exception);
+		}
+	}
+
+	/**
+	 * Reads an index previously written using {@link #write(File)}.
+	 */
+	public static PgnIndex read(File indexFile) {
+		try {
+			DataInputStream input = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(indexFile)));
+			try {
+				checkArgument(input.readInt() == MAGIC, "not an index file: " + indexFile);
+				checkArgument(input.readInt() == VERSION, "unsupported index version");
+				long pgnLength = input.readLong();
+				long pgnLastModified = input.readLong();
+				PgnIndex index = new PgnIndex(pgnLength, pgnLastModified, input.readInt());
+				for (int i = 0; i < index.size(); i++) {
+					index.offsets[i] = input.readLong();
+					index.tagLengths[i] = input.readInt();
+					index.results[i] = input.readByte();
+					index.whiteElos[i] = input.readShort();
+					index.blackElos[i] = input.readShort();
+					index.plyCounts[i] = input.readShort();
+					index.dates[i] = input.readInt();
+					input.readFully(index.ecos, i * ECO_LENGTH, ECO_LENGTH);
+				}
+				return index;
+			} finally {
+				input.close();
+			}
+		} catch (IOException exception) {
+			throw new RuntimeException("error reading index", exception);
+		}
+	}
+
+	private static short toShort(Integer value) {
+		if (value == null || value > Short.MAX_VALUE) {
+			return MISSING;
+		}
+		return value.shortValue();
+	}
+
+	private static void putNumber(ImmutableMap.Builder<String, String> metadata, String key,
+			short value) {
+		if (value != MISSING) {
+			metadata.put(key, Integer.toString(value));
+		}
+	}
+
+	/**
+	 * Turns a PGN date such as "2006.02.12" or "2006.??.??" into an integer
+	 * such as 20060212 or 20060000.
+	 */
+	private static int parseDate(String date) {
+		if (date == null || date.length() != 10) {
+			return 0;
+		}
+		return 10000 * parseDatePart(date.substring(0, 4))
+				+ 100 * parseDatePart(date.substring(5, 7))
+				+ parseDatePart(date.substring(8, 10));
+	}
+
+	private static int parseDatePart(String part) {
+		Integer value = Ints.tryParse(part);
+		return (value == null) ? 0 : value;
+	}
+
+	private static String formatDate(int date) {
+		return formatDatePart(date / 10000, 4) + "."
+				+ formatDatePart((date / 100) % 100, 2) + "."
+				+ formatDatePart(date % 100, 2);
+	}
+
+	private static String formatDatePart(int value, int width) {
+		if (value == 0) {
+			char[] unknown = new char[width];
+			Arrays.fill(unknown, '?');
+			return new String(unknown);
+		}
+		return String.format("%0" + width + "d", value);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other == null) {
+			return false;
+		}
+		if (getClass() != other.getClass()) {
+			return false;
+		}
+		final PgnIndex that = (PgnIndex) other;
+		return this.pgnLength == that.pgnLength
+				&& this.pgnLastModified == that.pgnLastModified
+				&& Arrays.equals(this.offsets, that.offsets)
+				&& Arrays.equals(this.tagLengths, that.tagLengths)
+				&& Arrays.equals(this.results, that.results)
+				&& Arrays.equals(this.whiteElos, that.whiteElos)
+				&& Arrays.equals(this.blackElos, that.blackElos)
+				&& Arrays.equals(this.plyCounts, that.plyCounts)
+				&& Arrays.equals(this.dates, that.dates)
+				&& Arrays.equals(this.ecos, that.ecos);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(pgnLength, pgnLastModified, Arrays.hashCode(offsets));
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("pgnLength", pgnLength)
+				.add("pgnLastModified", pgnLastModified)
+				.add("size", size())
+				.toString();
+	}
+}
@@ -1,26 +1,52 @@
 package edu.columbia.eecs6893_2014.rjb.chess;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Iterators;
+import com.google.common.hash.HashCode;
 
 import javax.annotation.Nullable;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
-import java.io.StringReader;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Parses chess games represented in portable game notation (PGN).
  */
 public class PgnParser {
+	// Chunks are large enough that per-chunk overhead is negligible,
+	// and small enough to keep every core busy until the end of the file.
+	private static final long PARALLEL_CHUNK_LENGTH = 4 * 1024 * 1024;
+	// A single mapping cannot exceed 2 GB; larger files are mapped in windows.
+	private static final long MAX_MAPPED_LENGTH = 1024 * 1024 * 1024;
+	// Metadata is decoded the same way FileReader used to decode whole files.
+	private static final Charset PGN_FILE_CHARSET = Charset.defaultCharset();
 
 	/**
 	 * Converter for turning ChessGames into other output; used
@@ -33,18 +59,65 @@ public class PgnParser {
 		public A convert(ChessGame game);
 	}
 
+	/**
+	 * A converter which only needs some of each game's board states. Games parsed
+	 * for it only keep the selected states, which saves most of the memory and time
+	 * spent copying boards; see {@link ChessGame#getBoardState(int)}.
+	 */
+	public interface PlySelectingConverter<A> extends ChessGameConverter<A> {
+		public PlySelection getPlySelection();
+	}
+
+	/**
+	 * Receives converted games one at a time; used with
+	 * {@link #parse(File, ChessGameConverter, ChessGameSink)}.
+	 *<p>
+	 * Unlike the list-returning methods, nothing is retained after a game
+	 * has been handed to the sink, so memory use does not grow with the
+	 * size of the PGN file.
+	 */
+	public interface ChessGameSink<A> {
+		public void accept(A convertedGame);
+	}
+
+	/**
+	 * An iterator over converted games which parses lazily, one game per
+	 * call to {@link #next()}. The underlying file is closed once the last
+	 * game has been returned; call {@link #close()} to release it earlier.
+	 */
+	public static class ChessGameIterator<A> extends AbstractIterator<A> implements Closeable {
+		private final PgnGameReader gameReader;
+		private final ChessGameConverter<A> converter;
+
+		private ChessGameIterator(PgnGameReader gameReader, ChessGameConverter<A> converter) {
+			this.gameReader = checkNotNull(gameReader, "gameReader");
+			this.converter = checkNotNull(converter, "converter");
+			gameReader.plySelection(plySelection(converter));
+		}
+
+		@Override
+		protected A computeNext() {
+			ChessGame game = gameReader.readGame();
+			if (game == null) {
+				close();
+				return endOfData();
+			}
+			return converter.convert(game);
+		}
+
+		@Override
+		public void close() {
+			gameReader.close();
+		}
+	}
+
 	/**
 	 * Parses a PGN file into {@link ChessGame}s, and then returns
 	 * a list of output generated using those parsed games.
 	 */
 	public static <A> ImmutableList<A> parse(File pgnFile,
 			ChessGameConverter<A> converter) {
-		try {
-			FileReader reader = new FileReader(pgnFile);
-			return parse(reader, converter);
-		} catch (FileNotFoundException exception) {
-			throw new RuntimeException("file not found", exception);
-		}
+		return parse(PgnGameReader.forFile(pgnFile), converter);
 	}
 
 	/**
@@ -53,88 +126,725 @@ public class PgnParser {
 	 */
 	public static <A> ImmutableList<A> parse(String pgnString,
 			ChessGameConverter<A> converter) {
-		return parse(new StringReader(pgnString), converter);
+		return parse(PgnGameReader.forString(pgnString), converter);
 	}
 
 	/**
-	 * Parses a PGN reader into {@link ChessGame}s, and then returns
-	 * a list of output generated using those parsed games.
+	 * Parses a PGN file into {@link ChessGame}s, and hands the output generated
+	 * using each game to the sink as soon as that game has been parsed.
+	 */
+	public static <A> void parse(File pgnFile, ChessGameConverter<A> converter,
+			ChessGameSink<? super A> sink) {
+		parse(PgnGameReader.forFile(pgnFile), converter, sink);
+	}
+
+	/**
+	 * Parses a PGN string into {@link ChessGame}s, and hands the output generated
+	 * using each game to the sink as soon as that game has been parsed.
+	 */
+	public static <A> void parse(String pgnString, ChessGameConverter<A> converter,
+			ChessGameSink<? super A> sink) {
+		parse(PgnGameReader.forString(pgnString), converter, sink);
+	}
+
+	/**
+	 * Parses the games in a PGN file whose headers match the filter into
+	 * {@link ChessGame}s, and then returns a list of output generated using those games.
+	 *<p>
+	 * Games which don't match are skipped over without their moves being replayed,
+	 * so filtering this way is much faster than filtering the output afterwards.
+	 * See {@link HeaderFilters} for common filters.
 	 */
-	private static <A> ImmutableList<A> parse(Reader pgnReader,
+	public static <A> ImmutableList<A> parseFiltered(File pgnFile,
+			ChessGameConverter<A> converter, Predicate<? super ChessGameHeader> filter) {
+		return parse(PgnGameReader.forFile(pgnFile).filter(filter), converter);
+	}
+
+	/**
+	 * Parses the games in a PGN string whose headers match the filter into
+	 * {@link ChessGame}s, and then returns a list of output generated using those games.
+	 */
+	public static <A> ImmutableList<A> parseFiltered(String pgnString,
+			ChessGameConverter<A> converter, Predicate<? super ChessGameHeader> filter) {
+		return parse(PgnGameReader.forString(pgnString).filter(filter), converter);
+	}
+
+	/**
+	 * Parses the games in a PGN file whose headers match the filter into
+	 * {@link ChessGame}s, and hands the output generated using each game to the sink.
+	 */
+	public static <A> void parseFiltered(File pgnFile, ChessGameConverter<A> converter,
+			Predicate<? super ChessGameHeader> filter, ChessGameSink<? super A> sink) {
+		parse(PgnGameReader.forFile(pgnFile).filter(filter), converter, sink);
+	}
+
+	/**
+	 * Like {@link #parse(File, ChessGameConverter)}, except that the parsed games are
+	 * cached in a binary file next to the PGN file. If the PGN file hasn't changed
+	 * since the cache was written, the games are replayed from the cache without
+	 * parsing any SAN moves, which is much faster.
+	 */
+	public static <A> ImmutableList<A> parseCached(File pgnFile, ChessGameConverter<A> converter) {
+		final ImmutableList.Builder<A> convertedGames = ImmutableList.builder();
+		parseCached(pgnFile, converter, new ChessGameSink<A>() {
+			@Override
+			public void accept(A convertedGame) {
+				convertedGames.add(convertedGame);
+			}
+		});
+		return convertedGames.build();
+	}
+
+	/**
+	 * Like {@link #parse(File, ChessGameConverter, ChessGameSink)}, except that the parsed
+	 * games are cached; see {@link #parseCached(File, ChessGameConverter)}.
+	 */
+	public static <A> void parseCached(File pgnFile, final ChessGameConverter<A> converter,
+			ChessGameSink<? super A> sink) {
+		checkNotNull(converter, "converter");
+		File cacheFile = ParsedGameCache.cacheFileFor(pgnFile);
+		HashCode pgnHash = ParsedGameCache.hash(pgnFile);
+		if (ParsedGameCache.isUpToDate(cacheFile, pgnHash)) {
+			ParsedGameCache.replay(cacheFile, converter, sink);
+			return;
+		}
+
+		final ParsedGameCache.Writer cacheWriter = new ParsedGameCache.Writer(cacheFile, pgnHash);
+		try {
+			parse(pgnFile, new PlySelectingConverter<A>() {
+				@Override
+				public A convert(ChessGame game) {
+					cacheWriter.write(game);
+					return converter.convert(game);
+				}
+
+				@Override
+				public PlySelection getPlySelection() {
+					return plySelection(converter);
+				}
+			}, sink);
+			cacheWriter.commit();
+		} finally {
+			cacheWriter.close();
+		}
+	}
+
+	/**
+	 * Parses a PGN file once, running every converter registered
+	 * with the fan-out against each game.
+	 */
+	public static void parse(File pgnFile, ChessGameFanOut fanOut) {
+		parse(pgnFile, fanOut.converter(), fanOut.sink());
+	}
+
+	/**
+	 * Parses the games in a PGN file whose headers match the filter once, running
+	 * every converter registered with the fan-out against each of those games.
+	 */
+	public static void parseFiltered(File pgnFile, ChessGameFanOut fanOut,
+			Predicate<? super ChessGameHeader> filter) {
+		parseFiltered(pgnFile, fanOut.converter(), filter, fanOut.sink());
+	}
+
+	/**
+	 * Returns an iterator which lazily parses a PGN file into {@link ChessGame}s,
+	 * returning the output generated using each game.
+	 *<p>
+	 * The iterator should be closed if it is abandoned before being exhausted.
+	 */
+	public static <A> ChessGameIterator<A> iterate(File pgnFile,
 			ChessGameConverter<A> converter) {
-		ImmutableList.Builder<A> convertedGames = ImmutableList.builder();
-		int gamesParsed = 0;
-		final int gamesPerProgressUpdate = 10000;
+		return new ChessGameIterator<A>(PgnGameReader.forFile(pgnFile), converter);
+	}
 
-		// Parser state:
-		boolean parsingMetadata = true;
-		ChessGame.Builder currentGame = new ChessGame.Builder();
-		PgnMovesParser movesParser = new PgnMovesParser(currentGame);
+	/**
+	 * Returns an iterator which lazily parses a PGN string into {@link ChessGame}s,
+	 * returning the output generated using each game.
+	 */
+	public static <A> ChessGameIterator<A> iterate(String pgnString,
+			ChessGameConverter<A> converter) {
+		return new ChessGameIterator<A>(PgnGameReader.forString(pgnString), converter);
+	}
+
+	/**
+	 * Returns an iterator which lazily parses the games in a PGN file whose
+	 * headers match the filter, returning the output generated using each game.
+	 */
+	public static <A> ChessGameIterator<A> iterate(File pgnFile,
+			ChessGameConverter<A> converter, Predicate<? super ChessGameHeader> filter) {
+		return new ChessGameIterator<A>(PgnGameReader.forFile(pgnFile).filter(filter), converter);
+	}
 
-		// Parse each line of the PGN file:
-		BufferedReader bufferedReader = new BufferedReader(pgnReader);
+	/**
+	 * Reads only the tag pairs of each game in a PGN file, and returns them as a list.
+	 *<p>
+	 * This is much faster than {@link #parse(File, ChessGameConverter)}, since
+	 * the moves of each game are skipped over without being parsed or replayed.
+	 */
+	public static ImmutableList<ChessGameHeader> parseHeaders(File pgnFile) {
+		return parseHeaders(PgnGameReader.forFile(pgnFile));
+	}
+
+	/**
+	 * Reads only the tag pairs of each game in a PGN string, and returns them as a list.
+	 */
+	public static ImmutableList<ChessGameHeader> parseHeaders(String pgnString) {
+		return parseHeaders(PgnGameReader.forString(pgnString));
+	}
+
+	/**
+	 * Reads only the tag pairs of each game in a PGN file, and hands
+	 * each game's header to the sink as soon as it has been read.
+	 */
+	public static void parseHeaders(File pgnFile, ChessGameSink<? super ChessGameHeader> sink) {
+		parseHeaders(PgnGameReader.forFile(pgnFile), sink);
+	}
+
+	/**
+	 * Parses a single game from a PGN file, found using an index of that file,
+	 * and returns the output generated using it. Only that game's bytes are read.
+	 */
+	public static <A> A parseGame(File pgnFile, PgnIndex index, int gameNumber,
+			ChessGameConverter<A> converter) {
+		ImmutableList<A> convertedGames =
+				parseGames(pgnFile, index, ImmutableList.of(gameNumber), converter);
+		checkState(convertedGames.size() == 1, "game %s is incomplete", gameNumber);
+		return convertedGames.get(0);
+	}
+
+	/**
+	 * Parses the given games from a PGN file, found using an index of that file,
+	 * and returns a list of output generated using them, in the given order.
+	 * Only the bytes of those games are read, so this is much faster than parsing
+	 * the whole file when few games are needed; see {@link PgnIndex#find(Predicate)}.
+	 */
+	public static <A> ImmutableList<A> parseGames(File pgnFile, PgnIndex index,
+			List<Integer> gameNumbers, ChessGameConverter<A> converter) {
+		checkArgument(index.isUpToDate(pgnFile), "index is out of date for file: " + pgnFile);
+		return parse(PgnGameReader.forGames(pgnFile, index, gameNumbers), converter);
+	}
+
+	/**
+	 * Parses the games between two byte offsets of a PGN file, and returns a list of
+	 * output generated using them. The start offset should be the start of a game,
+	 * such as one returned by {@link PgnIndex#getOffset(int)}; the end offset should
+	 * be the start of a later game or the length of the file.
+	 */
+	public static <A> ImmutableList<A> parseRange(File pgnFile, long start, long end,
+			ChessGameConverter<A> converter) {
+		return parse(PgnGameReader.forFile(pgnFile, start, end), converter);
+	}
+
+	/**
+	 * Parses a PGN file into {@link ChessGame}s using all available cores, and
+	 * then returns a list of output generated using those parsed games, in the
+	 * same order as the games appear in the file.
+	 *<p>
+	 * The converter is called concurrently from multiple threads.
+	 */
+	public static <A> ImmutableList<A> parseParallel(File pgnFile,
+			ChessGameConverter<A> converter) {
+		final ImmutableList.Builder<A> convertedGames = ImmutableList.builder();
+		parseParallel(pgnFile, converter, new ChessGameSink<A>() {
+			@Override
+			public void accept(A convertedGame) {
+				convertedGames.add(convertedGame);
+			}
+		}, /* ordered */ true);
+		return convertedGames.build();
+	}
+
+	/**
+	 * Parses a PGN file into {@link ChessGame}s using all available cores, and
+	 * hands the output generated using each game to the sink.
+	 *<p>
+	 * See {@link #parseParallel(File, ChessGameConverter, ChessGameSink, boolean, ForkJoinPool)}.
+	 */
+	public static <A> void parseParallel(File pgnFile, ChessGameConverter<A> converter,
+			ChessGameSink<? super A> sink, boolean ordered) {
+		ForkJoinPool pool = new ForkJoinPool();
 		try {
-			for (String line; (line = bufferedReader.readLine()) != null; /* do nothing */ ) {
-				if (parsingMetadata) {
-					if (line.length() == 0) {
-						continue;
-					} else if (line.charAt(0) == '[') {
-						parseMetadata(line, currentGame);
-						continue;
+			parseParallel(pgnFile, converter, sink, ordered, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Parses a PGN file into {@link ChessGame}s on the given pool, and hands the
+	 * output generated using each game to the sink.
+	 *<p>
+	 * The file is split into chunks of whole games, and each chunk is parsed
+	 * and converted as a separate task, so the converter is called concurrently
+	 * from multiple threads. The sink is only ever called from the calling thread.
+	 * If ordered is true, the sink receives output in the same order as the games
+	 * appear in the file; otherwise output is handed over as soon as its chunk is done.
+	 */
+	public static <A> void parseParallel(File pgnFile, ChessGameConverter<A> converter,
+			ChessGameSink<? super A> sink, boolean ordered, ForkJoinPool pool) {
+		parseParallel(pgnFile, converter, /* filter */ null, sink, ordered, pool,
+				PARALLEL_CHUNK_LENGTH);
+	}
+
+	/**
+	 * Like {@link #parseParallel(File, ChessGameConverter, ChessGameSink, boolean, ForkJoinPool)},
+	 * except that games whose headers don't match the filter are skipped without being replayed.
+	 */
+	public static <A> void parseParallel(File pgnFile, ChessGameConverter<A> converter,
+			Predicate<? super ChessGameHeader> filter, ChessGameSink<? super A> sink,
+			boolean ordered, ForkJoinPool pool) {
+		parseParallel(pgnFile, converter, checkNotNull(filter, "filter"), sink, ordered, pool,
+				PARALLEL_CHUNK_LENGTH);
+	}
+
+	@VisibleForTesting
+	static <A> void parseParallel(File pgnFile, ChessGameConverter<A> converter,
+			@Nullable Predicate<? super ChessGameHeader> filter, ChessGameSink<? super A> sink,
+			boolean ordered, ForkJoinPool pool, long chunkLength) {
+		checkNotNull(converter, "converter");
+		checkNotNull(sink, "sink");
+		// Keep a bounded number of chunks in flight, so that memory use
+		// does not grow with the size of the file when the sink is slow.
+		int maxChunksInFlight = 2 * pool.getParallelism();
+		int gamesParsed = 0;
+
+		try {
+			RandomAccessFile file = new RandomAccessFile(pgnFile, "r");
+			try {
+				FileChannel channel = file.getChannel();
+				PgnFileSplitter splitter = new PgnFileSplitter(channel, chunkLength);
+				CompletionService<ImmutableList<A>> completionService =
+						new ExecutorCompletionService<ImmutableList<A>>(pool);
+				Deque<Future<ImmutableList<A>>> chunksInFlight =
+						new ArrayDeque<Future<ImmutableList<A>>>();
+				// Each chunk has its own metadata dictionaries; this makes sure that
+				// values repeated across chunks are still only stored once.
+				Interner<String> interner = Interners.newStrongInterner();
+
+				while (splitter.hasNextChunk() || !chunksInFlight.isEmpty()) {
+					while (splitter.hasNextChunk() && chunksInFlight.size() < maxChunksInFlight) {
+						long chunkStart = splitter.nextChunk();
+						ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+								chunkStart, splitter.chunkEnd() - chunkStart);
+						ChunkParser<A> chunkParser =
+								new ChunkParser<A>(chunk, chunkStart, converter, filter, interner);
+						// Only unordered parsing takes results from the completion service;
+						// otherwise completed chunks would pile up in its queue.
+						chunksInFlight.add(ordered
+								? pool.submit(chunkParser)
+								: completionService.submit(chunkParser));
+					}
+
+					Future<ImmutableList<A>> done;
+					if (ordered) {
+						done = chunksInFlight.removeFirst();
 					} else {
-						parsingMetadata = false;
-						movesParser = new PgnMovesParser(currentGame);
-						// End of metadata; the game moves have started.
-						// No continue; this falls through to game parsing code below.
+						done = completionService.take();
+						chunksInFlight.remove(done);
 					}
-				}
-				if (line.length() == 0) {
-					throw new IllegalStateException("empty lines not expected while parsing moves");
-				}
-				String[] tokens = line.split(" ");
-				for (int i = 0; i < tokens.length; i++) {
-					if (movesParser.parseMove(tokens[i])) {
-						// End of moves, the game is over.
-						convertedGames.add(converter.convert(movesParser.getGame()));
-						parsingMetadata = true;
-						currentGame = new ChessGame.Builder();
-						movesParser = new PgnMovesParser(currentGame);
-						checkState(i == (tokens.length - 1), "no moves should be left");
+					for (A convertedGame : done.get()) {
+						sink.accept(convertedGame);
 						gamesParsed++;
-						if ((gamesParsed % gamesPerProgressUpdate) == 0) {
+						if ((gamesParsed % PgnGameReader.GAMES_PER_PROGRESS_UPDATE) == 0) {
 							System.out.println("games parsed: " + gamesParsed);
 						}
 					}
 				}
+			} finally {
+				file.close();
 			}
 		} catch (IOException exception) {
 			throw new RuntimeException("error parsing", exception);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted while parsing", exception);
+		} catch (ExecutionException exception) {
+			throw new RuntimeException("error parsing", exception.getCause());
+		}
+
+		if ((gamesParsed % PgnGameReader.GAMES_PER_PROGRESS_UPDATE) != 0) {
+			System.out.println("games parsed: " + gamesParsed);
+		}
+	}
+
+	/**
+	 * Parses and converts all games in one chunk of a PGN file.
+	 */
+	private static class ChunkParser<A> implements Callable<ImmutableList<A>> {
+		private final ByteBuffer chunk;
+		private final long chunkOffset;
+		private final ChessGameConverter<A> converter;
+		@Nullable private final Predicate<? super ChessGameHeader> filter;
+		private final Interner<String> interner;
+
+		private ChunkParser(ByteBuffer chunk, long chunkOffset, ChessGameConverter<A> converter,
+				@Nullable Predicate<? super ChessGameHeader> filter, Interner<String> interner) {
+			this.chunk = checkNotNull(chunk, "chunk");
+			this.chunkOffset = chunkOffset;
+			this.converter = checkNotNull(converter, "converter");
+			this.filter = filter;
+			this.interner = checkNotNull(interner, "interner");
+		}
+
+		@Override
+		public ImmutableList<A> call() {
+			final ImmutableList.Builder<A> convertedGames = ImmutableList.builder();
+			PgnGameReader gameReader = new PgnGameReader(
+					Iterators.singletonIterator(new PgnTokenizer(chunk, chunkOffset)),
+					PGN_FILE_CHARSET, interner, /* resource */ null, /* reportProgress */ false);
+			if (filter != null) {
+				gameReader.filter(filter);
+			}
+			gameReader.plySelection(plySelection(converter));
+			try {
+				for (ChessGame game; (game = gameReader.readGame()) != null; /* do nothing */ ) {
+					convertedGames.add(converter.convert(game));
+				}
+			} finally {
+				gameReader.close();
+			}
+			return convertedGames.build();
+		}
+	}
+
+	/**
+	 * Returns the board states a converter needs; every board state
+	 * unless it is a {@link PlySelectingConverter}.
+	 */
+	static PlySelection plySelection(ChessGameConverter<?> converter) {
+		return (converter instanceof PlySelectingConverter)
+				? ((PlySelectingConverter<?>) converter).getPlySelection()
+				: PlySelection.all();
+	}
+
+	/**
+	 * Parses games from a {@link PgnGameReader}, and then returns
+	 * a list of output generated using those parsed games.
+	 */
+	private static <A> ImmutableList<A> parse(PgnGameReader gameReader,
+			ChessGameConverter<A> converter) {
+		final ImmutableList.Builder<A> convertedGames = ImmutableList.builder();
+		parse(gameReader, converter, new ChessGameSink<A>() {
+			@Override
+			public void accept(A convertedGame) {
+				convertedGames.add(convertedGame);
+			}
+		});
+		return convertedGames.build();
+	}
+
+	/**
+	 * Parses games from a {@link PgnGameReader}, and hands the output
+	 * generated using each game to the sink.
+	 */
+	private static <A> void parse(PgnGameReader gameReader, ChessGameConverter<A> converter,
+			ChessGameSink<? super A> sink) {
+		gameReader.plySelection(plySelection(converter));
+		try {
+			for (ChessGame game; (game = gameReader.readGame()) != null; /* do nothing */ ) {
+				sink.accept(converter.convert(game));
+			}
 		} finally {
+			gameReader.close();
+		}
+	}
+
+	private static ImmutableList<ChessGameHeader> parseHeaders(PgnGameReader gameReader) {
+		final ImmutableList.Builder<ChessGameHeader> headers = ImmutableList.builder();
+		parseHeaders(gameReader, new ChessGameSink<ChessGameHeader>() {
+			@Override
+			public void accept(ChessGameHeader header) {
+				headers.add(header);
+			}
+		});
+		return headers.build();
+	}
+
+	private static void parseHeaders(PgnGameReader gameReader,
+			ChessGameSink<? super ChessGameHeader> sink) {
+		try {
+			for (ChessGameHeader header; (header = gameReader.readHeader()) != null; /* do nothing */ ) {
+				sink.accept(header);
+			}
+		} finally {
+			gameReader.close();
+		}
+	}
+
+	/**
+	 * Reads one {@link ChessGame} or {@link ChessGameHeader} at a time from PGN bytes.
+	 * A single reader should only be used to read one or the other.
+	 *<p>
+	 * The bytes are supplied as a sequence of tokenizers, each of which must
+	 * cover only whole games.
+	 */
+	private static class PgnGameReader {
+		private static final int GAMES_PER_PROGRESS_UPDATE = 10000;
+
+		private final Iterator<PgnTokenizer> tokenizers;
+		@Nullable private final Closeable resource;
+		private final boolean reportProgress;
+		private int gamesParsed = 0;
+		private boolean closed = false;
+		@Nullable private Predicate<? super ChessGameHeader> filter = null;
+		private PlySelection plySelection = PlySelection.all();
+		@Nullable private PgnTokenizer tokenizer = null;
+
+		// Metadata keys and values, and opening moves, shared by every game read:
+		private final PgnTagDictionary keyDictionary;
+		private final PgnTagDictionary valueDictionary;
+		private final OpeningCache openingCache = new OpeningCache();
+
+		/**
+		 * Constructs a reader which decodes metadata using the given charset.
+		 * If an interner is given, it is used to share metadata values with other readers.
+		 */
+		private PgnGameReader(Iterator<PgnTokenizer> tokenizers, Charset charset,
+				@Nullable Interner<String> interner, @Nullable Closeable resource,
+				boolean reportProgress) {
+			this.tokenizers = checkNotNull(tokenizers, "tokenizers");
+			this.resource = resource;
+			this.reportProgress = reportProgress;
+			this.keyDictionary = PgnTagDictionary.forKeys(charset);
+			this.valueDictionary = new PgnTagDictionary(charset, interner);
+		}
+
+		/**
+		 * Returns a reader for a PGN file, which is memory-mapped. Files too large
+		 * to map at once are mapped one window of whole games at a time.
+		 */
+		private static PgnGameReader forFile(File pgnFile) {
+			return forFile(pgnFile, 0, pgnFile.length());
+		}
+
+		/**
+		 * Returns a reader for the games between two byte offsets of a PGN file.
+		 */
+		private static PgnGameReader forFile(File pgnFile, long start, long end) {
 			try {
-				bufferedReader.close();
+				final RandomAccessFile file = new RandomAccessFile(pgnFile, "r");
+				final FileChannel channel = file.getChannel();
+				final PgnFileSplitter splitter;
+				try {
+					splitter = new PgnFileSplitter(channel, start, end, MAX_MAPPED_LENGTH);
+				} catch (RuntimeException exception) {
+					file.close();
+					throw exception;
+				}
+				Iterator<PgnTokenizer> windows = new AbstractIterator<PgnTokenizer>() {
+					@Override
+					protected PgnTokenizer computeNext() {
+						if (!splitter.hasNextChunk()) {
+							return endOfData();
+						}
+						try {
+							long windowStart = splitter.nextChunk();
+							return new PgnTokenizer(channel.map(FileChannel.MapMode.READ_ONLY,
+									windowStart, splitter.chunkEnd() - windowStart), windowStart);
+						} catch (IOException exception) {
+							throw new RuntimeException("error mapping file", exception);
+						}
+					}
+				};
+				return new PgnGameReader(windows, PGN_FILE_CHARSET, /* interner */ null, file,
+						/* reportProgress */ true);
+			} catch (FileNotFoundException exception) {
+				throw new RuntimeException("file not found", exception);
 			} catch (IOException exception) {
-				throw new RuntimeException("could not close bufferedReader", exception);
+				throw new RuntimeException("error opening file", exception);
 			}
 		}
 
-		if ((gamesParsed % gamesPerProgressUpdate) != 0) {
-			System.out.println("games parsed: " + gamesParsed);
+		/**
+		 * Returns a reader for individual games of a PGN file, each of which is read
+		 * with a positional read into a buffer that is reused from game to game.
+		 */
+		private static PgnGameReader forGames(File pgnFile, final PgnIndex index,
+				final List<Integer> gameNumbers) {
+			try {
+				final RandomAccessFile file = new RandomAccessFile(pgnFile, "r");
+				final FileChannel channel = file.getChannel();
+				final Iterator<Integer> remainingGames = gameNumbers.iterator();
+				Iterator<PgnTokenizer> games = new AbstractIterator<PgnTokenizer>() {
+					private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+					@Override
+					protected PgnTokenizer computeNext() {
+						if (!remainingGames.hasNext()) {
+							return endOfData();
+						}
+						int gameNumber = remainingGames.next();
+						long offset = index.getOffset(gameNumber);
+						int length = index.getLength(gameNumber);
+						if (buffer.capacity() < length) {
+							buffer = ByteBuffer.allocate(Math.max(length, 2 * buffer.capacity()));
+						}
+						buffer.clear();
+						buffer.limit(length);
+						try {
+							while (buffer.hasRemaining()) {
+								if (channel.read(buffer, offset + buffer.position()) < 0) {
+									throw new RuntimeException("index points past the end of the file");
+								}
+							}
+						} catch (IOException exception) {
+							throw new RuntimeException("error reading file", exception);
+						}
+						buffer.flip();
+						return new PgnTokenizer(buffer, offset);
+					}
+				};
+				return new PgnGameReader(games, PGN_FILE_CHARSET, /* interner */ null, file,
+						/* reportProgress */ false);
+			} catch (FileNotFoundException exception) {
+				throw new RuntimeException("file not found", exception);
+			}
+		}
+
+		/**
+		 * Returns a reader for PGN text held in a string.
+		 */
+		private static PgnGameReader forString(String pgnString) {
+			ByteBuffer buffer = ByteBuffer.wrap(pgnString.getBytes(Charsets.UTF_8));
+			PgnTokenizer tokenizer = new PgnTokenizer(buffer, /* bufferOffset */ 0);
+			return new PgnGameReader(Iterators.singletonIterator(tokenizer), Charsets.UTF_8,
+					/* interner */ null, /* resource */ null, /* reportProgress */ true);
+		}
+
+		/**
+		 * Makes this reader skip games whose headers don't match the filter.
+		 * The filter is applied before the moves are read.
+		 */
+		private PgnGameReader filter(Predicate<? super ChessGameHeader> filter) {
+			this.filter = checkNotNull(filter, "filter");
+			return this;
+		}
+
+		/**
+		 * Makes this reader only keep the selected board states of each game.
+		 */
+		private PgnGameReader plySelection(PlySelection plySelection) {
+			this.plySelection = checkNotNull(plySelection, "plySelection");
+			return this;
+		}
+
+		/**
+		 * Returns the next game, or null if there are no games left.
+		 */
+		@Nullable
+		private ChessGame readGame() {
+			if (closed) {
+				return null;
+			}
+			while (hasInput()) {
+				long gameOffset = tokenizer.offset();
+				ImmutableMap<String, String> metadata = readTags();
+
+				if (filter != null) {
+					ChessGameHeader header = new ChessGameHeader(metadata, gameOffset,
+							tokenizer.offset() - gameOffset);
+					if (!filter.apply(header)) {
+						tokenizer.skipMovetext();
+						continue;
+					}
+				}
+
+				ChessGame.Builder currentGame = new ChessGame.Builder(plySelection, openingCache);
+				currentGame.addAllMetadata(metadata);
+				String fen = metadata.get(ChessGame.FEN_TAG);
+				PgnMovesParser movesParser = new PgnMovesParser(currentGame,
+						(fen == null) ? 1 : Fen.getMoveNumber(fen));
+				while (tokenizer.nextWord()) {
+					if (movesParser.parseMove(tokenizer)) {
+						// End of moves, the game is over.
+						countGame();
+						return movesParser.getGame();
+					}
+				}
+				// The input ended part way through the game; it is dropped.
+			}
+
+			endOfInput();
+			return null;
+		}
+
+		/**
+		 * Returns the tag pairs of the next game, skipping over its moves;
+		 * returns null if there are no games left.
+		 */
+		@Nullable
+		private ChessGameHeader readHeader() {
+			if (closed) {
+				return null;
+			}
+			if (!hasInput()) {
+				endOfInput();
+				return null;
+			}
+
+			long gameOffset = tokenizer.offset();
+			ImmutableMap<String, String> metadata = readTags();
+			ChessGameHeader header = new ChessGameHeader(metadata, gameOffset,
+					tokenizer.offset() - gameOffset);
+			tokenizer.skipMovetext();
+
+			countGame();
+			return header;
+		}
+
+		/**
+		 * Reads the tag pairs at the start of a game.
+		 */
+		private ImmutableMap<String, String> readTags() {
+			ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+			while (tokenizer.peek() == '[') {
+				tokenizer.nextTag();
+				metadata.put(tokenizer.tagKey(keyDictionary), tokenizer.tagValue(valueDictionary));
+			}
+			return metadata.build();
+		}
+
+		/**
+		 * Returns true if there is unread input left, moving on
+		 * to the next tokenizer if the current one is exhausted.
+		 */
+		private boolean hasInput() {
+			while (tokenizer == null || tokenizer.peek() < 0) {
+				if (!tokenizers.hasNext()) {
+					return false;
+				}
+				tokenizer = tokenizers.next();
+			}
+			return true;
 		}
-		return convertedGames.build();
-	}
 
-	private static void parseMetadata(String line, ChessGame.Builder currentGame) {
-		// The key is the first token, except for a leading "[".
-		String key = line.split(" ")[0].substring(1);
-		// Note that the value may contain spaces and escaped quotes.
-		Pattern pattern = Pattern.compile("([^\\\\]\")(.*)([^\\\\]\")");
-		Matcher matcher = pattern.matcher(line);
-		if (!matcher.find()) {
-			throw new IllegalArgumentException("value should be wrapped in quotes");
+		private void countGame() {
+			gamesParsed++;
+			if (reportProgress && (gamesParsed % GAMES_PER_PROGRESS_UPDATE) == 0) {
+				System.out.println("games parsed: " + gamesParsed);
+			}
+		}
+
+		private void endOfInput() {
+			if (reportProgress && (gamesParsed % GAMES_PER_PROGRESS_UPDATE) != 0) {
+				System.out.println("games parsed: " + gamesParsed);
+			}
+			close();
+		}
+
+		private void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (resource != null) {
+				try {
+					resource.close();
+				} catch (IOException exception) {
+					throw new RuntimeException("could not close resource", exception);
+				}
+			}
 		}
-		String match = matcher.group();
-		String value = match.substring(2, match.length() - 1).replace("\\\"", "\"");
-		currentGame.addMetadata(key, value);
 	}
 
 	/**
@@ -143,18 +853,25 @@ public class PgnParser {
 	private static class PgnMovesParser {
 		private final ChessGame.Builder currentGame;
 		private NextTokenExpected nextTokenExpected = NextTokenExpected.MOVE_NUMBER;
-		private int nextTurn = 1;
+		private int nextTurn;
 		private boolean gameOver = false;
 
-		private PgnMovesParser(ChessGame.Builder currentGame) {
+		/**
+		 * Constructs a parser for a game whose first move has the given number,
+		 * which is only other than 1 for games starting from a "FEN" tag.
+		 */
+		private PgnMovesParser(ChessGame.Builder currentGame, int firstTurn) {
 			this.currentGame = checkNotNull(currentGame, "currentGame");
+			this.nextTurn = firstTurn;
 		}
 
 		/**
 		 * Takes in the next move, formatted using standard algebraic notation (SAN).
 		 * Returns true if the game is over.
+		 *<p>
+		 * The token is only read during this call, so it may be a reused buffer.
 		 */
-		private boolean parseMove(String moveToken) {
+		private boolean parseMove(CharSequence moveToken) {
 			checkState(!gameOver, "game is over");
 			if (isGameResult(moveToken)) {
 				currentGame.setWinner(getWinner(moveToken));
@@ -164,8 +881,13 @@ public class PgnParser {
 
 			switch (nextTokenExpected) {
 				case MOVE_NUMBER:
-					checkMoveNumberToken(moveToken, nextTurn);
+					boolean blackToMove = checkMoveNumberToken(moveToken, nextTurn);
 					nextTurn++;
+					if (blackToMove) {
+						// A game starting from a position with black to move, for example: 12...
+						nextTokenExpected = NextTokenExpected.BLACK_MOVE;
+						return false;
+					}
 					break;
 				case WHITE_MOVE:
 				case BLACK_MOVE:
@@ -180,10 +902,10 @@ public class PgnParser {
 			return false;
 		}
 
-		private boolean isGameResult(String moveToken) {
-			if (moveToken.equals("1-0")
-					|| moveToken.equals("0-1")
-					|| moveToken.equals("1/2-1/2")) {
+		private boolean isGameResult(CharSequence moveToken) {
+			if ("1-0".contentEquals(moveToken)
+					|| "0-1".contentEquals(moveToken)
+					|| "1/2-1/2".contentEquals(moveToken)) {
 				return true;
 			}
 			return false;
@@ -193,28 +915,50 @@ public class PgnParser {
 		 * Returns the winner of the game, or null for a tie.
 		 */
 		@Nullable
-		private ChessPlayer getWinner(String moveToken) {
-			if (moveToken.equals("1-0")) {
+		private ChessPlayer getWinner(CharSequence moveToken) {
+			if ("1-0".contentEquals(moveToken)) {
 				return ChessPlayer.WHITE;
-			} else if (moveToken.equals("0-1")) {
+			} else if ("0-1".contentEquals(moveToken)) {
 				return ChessPlayer.BLACK;
-			} else if (moveToken.equals("1/2-1/2")) {
+			} else if ("1/2-1/2".contentEquals(moveToken)) {
 				return null;
 			} else {
 				throw new IllegalArgumentException("not a game-ending move");
 			}
 		}
 
-		private void checkMoveNumberToken(String moveToken, Integer nextTurn) {
-			String expected = nextTurn.toString() + ".";
-			if (!moveToken.equals(expected)) {
+		/**
+		 * Checks the move number token, and returns true if it's followed by "..." for a
+		 * first move by black.
+		 */
+		private boolean checkMoveNumberToken(CharSequence moveToken, int nextTurn) {
+			// The token should be the turn number followed by a ".", for example: 12.
+			int length = moveToken.length();
+			if (length < 2 || moveToken.charAt(length - 1) != '.') {
+				throw new IllegalArgumentException("move number expected: " + moveToken);
+			}
+			boolean blackToMove = length >= 4 && moveToken.charAt(length - 2) == '.'
+					&& moveToken.charAt(length - 3) == '.';
+			if (blackToMove && !currentGame.getNextToMove().equals(ChessPlayer.BLACK)) {
+				throw new IllegalArgumentException("white to move: " + moveToken);
+			}
+			int turn = 0;
+			for (int i = 0; i < length - (blackToMove ? 3 : 1); i++) {
+				char digit = moveToken.charAt(i);
+				if (digit < '0' || digit > '9') {
+					throw new IllegalArgumentException("move number expected: " + moveToken);
+				}
+				turn = 10 * turn + (digit - '0');
+			}
+			if (turn != nextTurn) {
 				throw new IllegalArgumentException("move number incorrect");
 			}
+			return blackToMove;
 		}
 
 		/**
 		 * Returns the game after applying all moves; should only be called once
-		 * {@link #parseMove(String)} returns true.
+		 * {@link #parseMove(CharSequence)} returns true.
 		 */
 		private ChessGame getGame() {
 			checkState(gameOver, "game not over");
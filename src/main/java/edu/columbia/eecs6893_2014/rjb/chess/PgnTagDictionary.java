@@ -0,0 +1,148 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+
+import javax.annotation.Nullable;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Maps the raw bytes of PGN tag keys and values to canonical strings, so that
+ * a value which is repeated across many games (a player name, an event, a site)
+ * is decoded once and then stored once for the whole corpus.
+ *<p>
+ * Lookups do not allocate when the bytes have been seen before. This class is
+ * not thread-safe; parsers running in parallel should each use their own
+ * dictionary, optionally backed by a shared {@link Interner}.
+ */
+class PgnTagDictionary {
+	/**
+	 * Keys which appear in nearly every game: the seven tag roster required
+	 * by the PGN specification, followed by other common tags.
+	 */
+	static final ImmutableList<String> STANDARD_KEYS = ImmutableList.of(
+			"Event", "Site", "Date", "Round", "White", "Black", "Result",
+			"WhiteElo", "BlackElo", "ECO", "PlyCount", "EventDate", "FEN", "SetUp");
+
+	// Beyond this, new strings are still decoded but no longer remembered,
+	// so that a corpus of mostly unique values cannot exhaust memory.
+	private static final int MAX_ENTRIES = 1 << 20;
+
+	private final Charset charset;
+	@Nullable private final Interner<String> interner;
+	private byte[][] entryBytes;
+	private String[] entryStrings;
+	private int[] entryHashes;
+	private int size = 0;
+
+	PgnTagDictionary(Charset charset, @Nullable Interner<String> interner) {
+		this.charset = checkNotNull(charset, "charset");
+		this.interner = interner;
+		allocate(1024);
+	}
+
+	/**
+	 * Returns a dictionary for tag keys, already containing the {@link #STANDARD_KEYS}.
+	 */
+	static PgnTagDictionary forKeys(Charset charset) {
+		PgnTagDictionary dictionary = new PgnTagDictionary(charset, /* interner */ null);
+		for (String key : STANDARD_KEYS) {
+			byte[] bytes = key.getBytes(Charsets.US_ASCII);
+			dictionary.add(bytes, hash(bytes, bytes.length), key);
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Returns the canonical string for the first length bytes of the array.
+	 */
+	String get(byte[] bytes, int length) {
+		int hash = hash(bytes, length);
+		int mask = entryBytes.length - 1;
+		for (int slot = hash & mask; entryBytes[slot] != null; slot = (slot + 1) & mask) {
+			if (entryHashes[slot] == hash && equal(entryBytes[slot], bytes, length)) {
+				return entryStrings[slot];
+			}
+		}
+
+		String string = new String(bytes, 0, length, charset);
+		if (interner != null) {
+			string = interner.intern(string);
+		}
+		if (size < MAX_ENTRIES) {
+			add(Arrays.copyOf(bytes, length), hash, string);
+		}
+		return string;
+	}
+
+	private void add(byte[] bytes, int hash, String string) {
+		// Keep the table at most half full, so that probe sequences stay short.
+		if (2 * (size + 1) > entryBytes.length) {
+			byte[][] oldBytes = entryBytes;
+			String[] oldStrings = entryStrings;
+			int[] oldHashes = entryHashes;
+			allocate(2 * oldBytes.length);
+			for (int i = 0; i < oldBytes.length; i++) {
+				if (oldBytes[i] != null) {
+					insert(oldBytes[i], oldHashes[i], oldStrings[i]);
+				}
+			}
+		}
+		insert(bytes, hash, string);
+		size++;
+	}
+
+	private void allocate(int capacity) {
+		entryBytes = new byte[capacity][];
+		entryStrings = new String[capacity];
+		entryHashes = new int[capacity];
+	}
+
+	private void insert(byte[] bytes, int hash, String string) {
+		int mask = entryBytes.length - 1;
+		int slot = hash & mask;
+		while (entryBytes[slot] != null) {
+			slot = (slot + 1) & mask;
+		}
+		entryBytes[slot] = bytes;
+		entryStrings[slot] = string;
+		entryHashes[slot] = hash;
+	}
+
+	/**
+	 * FNV-1a, with the bits mixed further so that the low bits used
+	 * to pick a slot depend on every byte.
+	 */
+	private static int hash(byte[] bytes, int length) {
+		int hash = 0x811c9dc5;
+		for (int i = 0; i < length; i++) {
+			hash = (hash ^ bytes[i]) * 0x01000193;
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean equal(byte[] entry, byte[] bytes, int length) {
+		if (entry.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (entry[i] != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("size", size)
+				.toString();
+	}
+}
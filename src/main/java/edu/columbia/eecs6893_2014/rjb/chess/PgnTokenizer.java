@@ -0,0 +1,202 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Splits PGN text into tokens, working directly on the bytes of a {@link ByteBuffer}
+ * (usually a memory-mapped file).
+ *<p>
+ * The current token is exposed by this class itself as a {@link CharSequence}, so
+ * no String is created per token. Movetext is ASCII, so each byte is one character.
+ * The token is only valid until the next token is read.
+ */
+class PgnTokenizer implements CharSequence {
+	private final ByteBuffer buffer;
+	private final long bufferOffset; // The offset in the PGN file of the buffer's start.
+	private final int start;
+	private final int limit;
+	private int position;
+	private int tokenStart;
+	private int tokenEnd;
+
+	// The most recent tag pair, with escape sequences already removed from the value:
+	private byte[] tagKey = new byte[16];
+	private int tagKeyLength = 0;
+	private byte[] tagValue = new byte[64];
+	private int tagValueLength = 0;
+
+	/**
+	 * Tokenizes the bytes between the buffer's position and its limit, where the
+	 * buffer's position corresponds to the given offset in the PGN file.
+	 * The buffer's own position is not modified.
+	 */
+	PgnTokenizer(ByteBuffer buffer, long bufferOffset) {
+		this.buffer = checkNotNull(buffer, "buffer");
+		this.bufferOffset = bufferOffset;
+		this.start = buffer.position();
+		this.position = start;
+		this.limit = buffer.limit();
+	}
+
+	/**
+	 * Returns the offset in the PGN file of the next unread byte.
+	 */
+	long offset() {
+		return bufferOffset + (position - start);
+	}
+
+	/**
+	 * Skips whitespace, and then returns the next byte without consuming it.
+	 * Returns -1 if the end of the input has been reached.
+	 */
+	int peek() {
+		while (position < limit) {
+			byte next = buffer.get(position);
+			if (!isWhitespace(next)) {
+				return next & 0xff;
+			}
+			position++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Skips whitespace, and then reads the next run of non-whitespace bytes
+	 * as the current token. Returns false at the end of the input.
+	 */
+	boolean nextWord() {
+		if (peek() < 0) {
+			return false;
+		}
+		tokenStart = position;
+		while (position < limit && !isWhitespace(buffer.get(position))) {
+			position++;
+		}
+		tokenEnd = position;
+		return true;
+	}
+
+	/**
+	 * Skips over the movetext of a game without tokenizing it, stopping at the
+	 * next line which starts with "[" (the first tag pair of the next game).
+	 */
+	void skipMovetext() {
+		boolean atLineStart = false;
+		while (position < limit) {
+			byte next = buffer.get(position);
+			if (atLineStart && next == '[') {
+				return;
+			}
+			atLineStart = (next == '\n');
+			position++;
+		}
+	}
+
+	/**
+	 * Skips whitespace, and then reads a tag pair line, for example:
+	 * [Event "It (open) \"Aeroflot\" (A2)"]
+	 *<p>
+	 * Within the value, a backslash escapes a quote or another backslash.
+	 * The key and value are then available through {@link #tagKey(PgnTagDictionary)}
+	 * and {@link #tagValue(PgnTagDictionary)}.
+	 */
+	void nextTag() {
+		checkArgument(peek() == '[', "tag pair should start with \"[\"");
+		position++;
+
+		// The key is a run of symbol characters, directly after the "[".
+		tagKeyLength = 0;
+		while (position < limit && !isWhitespace(buffer.get(position))
+				&& buffer.get(position) != '"' && buffer.get(position) != ']') {
+			tagKey = append(tagKey, tagKeyLength++, buffer.get(position++));
+		}
+		checkArgument(tagKeyLength > 0, "tag key expected");
+
+		// The value is a string, wrapped in quotes.
+		skipSpaces();
+		checkArgument(position < limit && buffer.get(position) == '"',
+				"value should be wrapped in quotes");
+		position++;
+		tagValueLength = 0;
+		while (true) {
+			checkArgument(position < limit && buffer.get(position) != '\n',
+					"value should be wrapped in quotes");
+			byte next = buffer.get(position++);
+			if (next == '"') {
+				break;
+			} else if (next == '\\' && position < limit
+					&& (buffer.get(position) == '"' || buffer.get(position) == '\\')) {
+				next = buffer.get(position++);
+			}
+			tagValue = append(tagValue, tagValueLength++, next);
+		}
+
+		skipSpaces();
+		checkArgument(position < limit && buffer.get(position) == ']',
+				"tag pair should end with \"]\"");
+		position++;
+	}
+
+	/**
+	 * Returns the key of the tag pair last read by {@link #nextTag()}.
+	 */
+	String tagKey(PgnTagDictionary dictionary) {
+		return dictionary.get(tagKey, tagKeyLength);
+	}
+
+	/**
+	 * Returns the value of the tag pair last read by {@link #nextTag()}.
+	 */
+	String tagValue(PgnTagDictionary dictionary) {
+		return dictionary.get(tagValue, tagValueLength);
+	}
+
+	private void skipSpaces() {
+		while (position < limit && (buffer.get(position) == ' ' || buffer.get(position) == '\t')) {
+			position++;
+		}
+	}
+
+	private static byte[] append(byte[] array, int index, byte value) {
+		if (index == array.length) {
+			array = Arrays.copyOf(array, 2 * array.length);
+		}
+		array[index] = value;
+		return array;
+	}
+
+	private static boolean isWhitespace(byte character) {
+		return character == ' ' || character == '\n' || character == '\r' || character == '\t';
+	}
+
+	@Override
+	public int length() {
+		return tokenEnd - tokenStart;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length()) {
+			throw new IndexOutOfBoundsException("index: " + index);
+		}
+		return (char) (buffer.get(tokenStart + index) & 0xff);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(length());
+		for (int i = 0; i < length(); i++) {
+			builder.append(charAt(i));
+		}
+		return builder.toString();
+	}
+}
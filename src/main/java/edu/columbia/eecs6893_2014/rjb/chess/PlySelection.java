@@ -0,0 +1,141 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.primitives.Ints;
+
+/**
+ * Selects which board states of a {@link ChessGame} are kept while it is built;
+ * see {@link PgnParser.PlySelectingConverter}.
+ *<p>
+ * Plies are counted from the start as indexes into {@link ChessGame#boardStates},
+ * so ply 0 is the board after white's first move. Plies counted from the end start
+ * at 1 for the final board, 2 for the board before it, and so on, with games that
+ * are too short using ply 0 instead.
+ */
+public final class PlySelection {
+	private static final PlySelection ALL = new PlySelection(/* all */ true,
+			ImmutableSortedSet.<Integer>of(), ImmutableSortedSet.<Integer>of());
+	private static final PlySelection NONE = new PlySelection(/* all */ false,
+			ImmutableSortedSet.<Integer>of(), ImmutableSortedSet.<Integer>of());
+
+	private final boolean all;
+	private final ImmutableSortedSet<Integer> fromStart;
+	private final ImmutableSortedSet<Integer> fromEnd;
+
+	private PlySelection(boolean all, ImmutableSortedSet<Integer> fromStart,
+			ImmutableSortedSet<Integer> fromEnd) {
+		this.all = all;
+		this.fromStart = fromStart;
+		this.fromEnd = fromEnd;
+	}
+
+	/**
+	 * Selects every board state; this is what games are built with by default.
+	 */
+	public static PlySelection all() {
+		return ALL;
+	}
+
+	/**
+	 * Selects no board states, for converters which only need metadata.
+	 */
+	public static PlySelection none() {
+		return NONE;
+	}
+
+	/**
+	 * Selects the given plies, counted from the start of the game.
+	 */
+	public static PlySelection fromStart(int... plies) {
+		for (int ply : plies) {
+			checkArgument(ply >= 0, "plies from the start must not be negative");
+		}
+		return new PlySelection(/* all */ false, ImmutableSortedSet.copyOf(Ints.asList(plies)),
+				ImmutableSortedSet.<Integer>of());
+	}
+
+	/**
+	 * Selects the given plies, counted back from the end of the game.
+	 */
+	public static PlySelection fromEnd(int... turnsFromLast) {
+		for (int turns : turnsFromLast) {
+			checkArgument(turns >= 1, "turns from last must be at least 1");
+		}
+		return new PlySelection(/* all */ false, ImmutableSortedSet.<Integer>of(),
+				ImmutableSortedSet.copyOf(Ints.asList(turnsFromLast)));
+	}
+
+	/**
+	 * Returns a selection of every ply selected by this or the other selection.
+	 */
+	public PlySelection union(PlySelection other) {
+		if (this.all || other.all) {
+			return ALL;
+		}
+		return new PlySelection(/* all */ false,
+				ImmutableSortedSet.<Integer>naturalOrder()
+						.addAll(this.fromStart).addAll(other.fromStart).build(),
+				ImmutableSortedSet.<Integer>naturalOrder()
+						.addAll(this.fromEnd).addAll(other.fromEnd).build());
+	}
+
+	/**
+	 * Returns true if every board state is selected.
+	 */
+	public boolean isAll() {
+		return all;
+	}
+
+	/**
+	 * Returns true if the given ply, counted from the start, is selected as such.
+	 */
+	boolean includesFromStart(int ply) {
+		return all || fromStart.contains(ply);
+	}
+
+	/**
+	 * Returns the plies selected counting back from the end of the game.
+	 */
+	ImmutableSortedSet<Integer> getFromEnd() {
+		return fromEnd;
+	}
+
+	/**
+	 * Returns how many of the most recent board states must be kept to
+	 * answer every selected ply counted from the end; 0 if there are none.
+	 */
+	int getMaxFromEnd() {
+		return fromEnd.isEmpty() ? 0 : fromEnd.last();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other == null) {
+			return false;
+		}
+		if (getClass() != other.getClass()) {
+			return false;
+		}
+		final PlySelection that = (PlySelection) other;
+		return this.all == that.all
+				&& Objects.equal(this.fromStart, that.fromStart)
+				&& Objects.equal(this.fromEnd, that.fromEnd);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(this.all, this.fromStart, this.fromEnd);
+	}
+
+	@Override
+	public String toString() {
+		return Objects.toStringHelper(this)
+				.add("all", all)
+				.add("fromStart", fromStart)
+				.add("fromEnd", fromEnd)
+				.toString();
+	}
+}
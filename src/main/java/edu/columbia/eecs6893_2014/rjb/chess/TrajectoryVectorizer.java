@@ -0,0 +1,46 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import com.google.common.collect.ImmutableList;
+
+import edu.columbia.eecs6893_2014.rjb.classifier.Vectorizer.Vector;
+
+/**
+ * A class which turns instances of {@link ChessGame} into {@link Vector}s,
+ * with the features being aggregates over every ply of the game, from its
+ * {@link GameTrajectory}. See {@link #features()}.
+ */
+public class TrajectoryVectorizer extends ChessGameVectorizer {
+	private static final ImmutableList<String> FEATURES = ImmutableList.of(
+			"whiteChecks", "blackChecks", "whiteCaptures", "blackCaptures",
+			"whiteMaxMaterialDeficit", "blackMaxMaterialDeficit", "materialSwing",
+			"pliesSinceCapture");
+
+	/**
+	 * The trajectory is kept as the game is built, so no board states are kept.
+	 */
+	@Override
+	public PlySelection getPlySelection() {
+		return PlySelection.none();
+	}
+
+	/**
+	 * Writes the aggregates over every ply of the game.
+	 */
+	@Override
+	protected void writeFeatures(ChessGame game, double[] values, int offset) {
+		GameTrajectory trajectory = game.trajectory;
+		values[offset] = trajectory.getChecks(ChessPlayer.WHITE);
+		values[offset + 1] = trajectory.getChecks(ChessPlayer.BLACK);
+		values[offset + 2] = trajectory.getCaptures(ChessPlayer.WHITE);
+		values[offset + 3] = trajectory.getCaptures(ChessPlayer.BLACK);
+		values[offset + 4] = trajectory.getMaxMaterialDeficit(ChessPlayer.WHITE);
+		values[offset + 5] = trajectory.getMaxMaterialDeficit(ChessPlayer.BLACK);
+		values[offset + 6] = trajectory.getMaterialSwing();
+		values[offset + 7] = trajectory.getPliesSinceCapture();
+	}
+
+	@Override
+	public ImmutableList<String> features() {
+		return FEATURES;
+	}
+}
@@ -0,0 +1,74 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import java.util.Random;
+
+/**
+ * Random keys for Zobrist hashing of chess positions. The key of a position is the
+ * exclusive or of the keys of each piece on its square, of the side to move, of the
+ * castling rights and of the en passant file, so a move updates the key by xoring out
+ * what it changes and xoring in the replacement.
+ *<p>
+ * The keys are generated from a fixed seed, so they are the same on every run and
+ * may be stored.
+ */
+final class ZobristKeys {
+	private static final long SEED = 6893;
+
+	// Indexed by Chessboard.bitboardIndex() and then by square.
+	private static final long[][] PIECES =
+			new long[2 * ChessPieceType.values().length][Chessboard.SQUARES];
+	private static final long BLACK_TO_MOVE;
+	// Indexed by every combination of the castling right bits in Chessboard.
+	private static final long[] CASTLING_RIGHTS = new long[16];
+	private static final long[] EN_PASSANT_FILES = new long[8];
+
+	static {
+		Random random = new Random(SEED);
+		for (long[] pieceKeys : PIECES) {
+			for (int square = 0; square < pieceKeys.length; square++) {
+				pieceKeys[square] = random.nextLong();
+			}
+		}
+		BLACK_TO_MOVE = random.nextLong();
+		long[] rightKeys = {random.nextLong(), random.nextLong(),
+				random.nextLong(), random.nextLong()};
+		for (int rights = 0; rights < CASTLING_RIGHTS.length; rights++) {
+			for (int right = 0; right < rightKeys.length; right++) {
+				if ((rights & (1 << right)) != 0) {
+					CASTLING_RIGHTS[rights] ^= rightKeys[right];
+				}
+			}
+		}
+		for (int file = 0; file < EN_PASSANT_FILES.length; file++) {
+			EN_PASSANT_FILES[file] = random.nextLong();
+		}
+	}
+
+	/**
+	 * No public constructor; use the static methods.
+	 */
+	private ZobristKeys() {
+	}
+
+	/**
+	 * Returns the key of a piece on a square, given the piece's index into the bitboards.
+	 */
+	static long piece(int bitboardIndex, int square) {
+		return PIECES[bitboardIndex][square];
+	}
+
+	/**
+	 * Returns the key of everything about a position besides its pieces. The en passant
+	 * file is -1 if the last move wasn't a pawn moving two squares.
+	 */
+	static long state(ChessPlayer sideToMove, int castlingRights, int enPassantFile) {
+		long key = CASTLING_RIGHTS[castlingRights];
+		if (sideToMove == ChessPlayer.BLACK) {
+			key ^= BLACK_TO_MOVE;
+		}
+		if (enPassantFile >= 0) {
+			key ^= EN_PASSANT_FILES[enPassantFile];
+		}
+		return key;
+	}
+}
@@ -0,0 +1,158 @@
+package edu.columbia.eecs6893_2014.rjb.classifier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.VectorView;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A batch of dense feature vectors and their categories, stored as one row-major
+ * {@code double[]} with a parallel {@code byte[]} of category indices.
+ *<p>
+ * Compared to a list of {@link Vectorizer.Vector}s, each holding a sparse vector and
+ * a category string, this uses a fixed 8 bytes per feature plus 1 byte per row, and
+ * reading the rows in order scans memory sequentially. {@link #getRow(int)} and
+ * {@link #toVectors()} give Mahout views of the rows, without copying them.
+ */
+public final class FeatureMatrix {
+	private final ImmutableList<String> categories;
+	private final ImmutableList<String> features;
+	private final int rowCount;
+	private final double[] values;
+	private final byte[] labels;
+	// Every row is a view of this vector, which is backed by values.
+	private final DenseVector allValues;
+
+	private FeatureMatrix(Builder builder) {
+		this.categories = builder.categories;
+		this.features = builder.features;
+		this.rowCount = builder.rowCount;
+		this.values = Arrays.copyOf(builder.values, rowCount * features.size());
+		this.labels = Arrays.copyOf(builder.labels, rowCount);
+		this.allValues = new DenseVector(values, /* shallowCopy */ true);
+	}
+
+	public ImmutableList<String> categories() {
+		return categories;
+	}
+
+	public ImmutableList<String> features() {
+		return features;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getColumnCount() {
+		return features.size();
+	}
+
+	/**
+	 * Returns the value of a feature in a row.
+	 */
+	public double get(int row, int column) {
+		checkElementIndex(row, rowCount, "row");
+		checkElementIndex(column, features.size(), "column");
+		return values[row * features.size() + column];
+	}
+
+	/**
+	 * Returns the index into {@link #categories()} of a row's category.
+	 */
+	public int getLabel(int row) {
+		checkElementIndex(row, rowCount, "row");
+		return labels[row];
+	}
+
+	public String getCategory(int row) {
+		return categories.get(getLabel(row));
+	}
+
+	/**
+	 * Returns a view of a row's values, which doesn't copy them.
+	 */
+	public org.apache.mahout.math.Vector getRow(int row) {
+		checkElementIndex(row, rowCount, "row");
+		return new VectorView(allValues, row * features.size(), features.size());
+	}
+
+	/**
+	 * Returns every row as a {@link Vectorizer.Vector}, for the {@link Classifier}s; the
+	 * vectors are views of this matrix, so changing them changes the matrix.
+	 */
+	public ImmutableList<Vectorizer.Vector> toVectors() {
+		ImmutableList.Builder<Vectorizer.Vector> vectors = ImmutableList.builder();
+		for (int row = 0; row < rowCount; row++) {
+			vectors.add(new Vectorizer.Vector(getCategory(row), getRow(row)));
+		}
+		return vectors.build();
+	}
+
+	/**
+	 * Builder for {@link FeatureMatrix}, to which rows are added one at a time.
+	 * This class is not thread-safe.
+	 */
+	public static class Builder {
+		private final ImmutableList<String> categories;
+		private final ImmutableList<String> features;
+		private double[] values;
+		private byte[] labels = new byte[1024];
+		private int rowCount = 0;
+
+		public Builder(List<String> categories, List<String> features) {
+			this.categories = ImmutableList.copyOf(checkNotNull(categories, "categories"));
+			this.features = ImmutableList.copyOf(checkNotNull(features, "features"));
+			checkArgument(categories.size() <= Byte.MAX_VALUE, "too many categories");
+			this.values = new double[labels.length * features.size()];
+		}
+
+		/**
+		 * Adds a row, copying the values of its features.
+		 */
+		public Builder addRow(String category, double[] rowValues) {
+			checkArgument(rowValues.length == features.size(), "expected %s features, not %s",
+					features.size(), rowValues.length);
+			System.arraycopy(rowValues, 0, values, addRow(category), rowValues.length);
+			return this;
+		}
+
+		/**
+		 * Adds a row, copying the values of its features.
+		 */
+		public Builder addRow(Vectorizer.Vector vector) {
+			checkArgument(vector.vector.size() == features.size(), "expected %s features, not %s",
+					features.size(), vector.vector.size());
+			int offset = addRow(vector.category);
+			for (int column = 0; column < features.size(); column++) {
+				values[offset + column] = vector.vector.getQuick(column);
+			}
+			return this;
+		}
+
+		/**
+		 * Adds a row with the category, and returns the offset of its values.
+		 */
+		private int addRow(String category) {
+			int label = categories.indexOf(category);
+			checkArgument(label >= 0, "unexpected category: %s", category);
+			if (rowCount == labels.length) {
+				labels = Arrays.copyOf(labels, 2 * rowCount);
+				values = Arrays.copyOf(values, labels.length * features.size());
+			}
+			labels[rowCount] = (byte) label;
+			return features.size() * rowCount++;
+		}
+
+		public FeatureMatrix build() {
+			return new FeatureMatrix(this);
+		}
+	}
+}
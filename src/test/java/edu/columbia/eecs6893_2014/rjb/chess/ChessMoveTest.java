@@ -0,0 +1,28 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Test cases for {@link ChessMove}.
+ */
+public class ChessMoveTest {
+	@Test
+	public void testSanDecoding() {
+		Chessboard board = Fen.parse("R7/1P6/8/3pP1N1/3k4/2N5/8/R3K2R w KQ d6 0 1");
+		for (String sanMove : new String[] {"R1a4", "R8a4", "Nce4", "Nge4", "exd6", "b8=Q",
+				"b8=N+", "O-O", "O-O-O#", "Kf2"}) {
+			assertEquals(sanMove,
+					ChessMove.pack(ChessMove.parseSanMove(sanMove, ChessPlayer.WHITE, board)
+							.iterator().next()),
+					ChessMove.decodeSanMove(sanMove, ChessPlayer.WHITE, board));
+		}
+		assertEquals("queenside castling", ChessMove.pack(4, 2, null, false),
+				ChessMove.decodeSanMove("O-O-O", ChessPlayer.WHITE, board));
+		assertEquals("en passant", ChessMove.pack(36, 43, null, true),
+				ChessMove.decodeSanMove("exd6", ChessPlayer.WHITE, board));
+		assertEquals("disambiguated by rank", ChessMove.pack(56, 24, null, false),
+				ChessMove.decodeSanMove("R8a4", ChessPlayer.WHITE, board));
+	}
+}
@@ -0,0 +1,169 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static edu.columbia.eecs6893_2014.rjb.chess.PgnParserTest.identity;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Test cases for {@link Chessboard} and {@link ImmutableChessboard}.
+ */
+public class ChessboardTest {
+	@Test
+	public void testAttackedSquares() {
+		ImmutableList<ChessGame> games =
+				PgnParser.parse(new File("src/data/chessdata_tiny.pgn"), identity());
+		for (ChessGame game : games.subList(0, 50)) {
+			for (ImmutableChessboard board : game.boardStates) {
+				for (ChessPlayer player : ChessPlayer.values()) {
+					long attacks = board.getAttackedSquares(player);
+					for (int square = 0; square < Chessboard.SQUARES; square++) {
+						assertEquals("square " + square + " attacked by " + player,
+								board.isSquareThreatenedBy(square, player),
+								(attacks & (1L << square)) != 0);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testZobristKeys() {
+		ImmutableList<ChessGame> games =
+				PgnParser.parse(new File("src/data/chessdata_tiny.pgn"), identity());
+		for (ChessGame game : games.subList(0, 50)) {
+			for (int ply = 0; ply < game.boardStates.size(); ply++) {
+				ImmutableChessboard board = game.boardStates.get(ply);
+				assertEquals("side to move", (ply % 2 == 0) ? ChessPlayer.BLACK : ChessPlayer.WHITE,
+						board.getSideToMove());
+				// The incrementally updated key must match a key computed from scratch.
+				ImmutableSet.Builder<ImmutableChessPiece> pieces = ImmutableSet.builder();
+				for (ChessPiece piece : board.getPieces()) {
+					pieces.add(piece.asImmutable());
+				}
+				assertEquals("key", new ImmutableChessboard(pieces.build(), board.getSideToMove(),
+						board.getCastlingRights(), board.getEnPassantFile()).getZobristKey(),
+						board.getZobristKey());
+			}
+		}
+
+		// Transposed move orders reach the same position, and so the same key.
+		ChessGame.Builder first = new ChessGame.Builder();
+		first.addMove("Nf3", ChessPlayer.WHITE);
+		first.addMove("Nf6", ChessPlayer.BLACK);
+		first.addMove("Nc3", ChessPlayer.WHITE);
+		first.addMove("Nc6", ChessPlayer.BLACK);
+		ChessGame.Builder second = new ChessGame.Builder();
+		second.addMove("Nc3", ChessPlayer.WHITE);
+		second.addMove("Nc6", ChessPlayer.BLACK);
+		second.addMove("Nf3", ChessPlayer.WHITE);
+		second.addMove("Nf6", ChessPlayer.BLACK);
+		assertEquals("transposition", first.build().boardStates.get(3).getZobristKey(),
+				second.build().boardStates.get(3).getZobristKey());
+	}
+
+	@Test
+	public void testPackedSnapshots() {
+		ImmutableList<ChessGame> games =
+				PgnParser.parse(new File("src/data/chessdata_tiny.pgn"), identity());
+		byte[] placement = new byte[Chessboard.PLACEMENT_LENGTH];
+		for (ChessGame game : games.subList(0, 50)) {
+			for (ImmutableChessboard board : game.boardStates) {
+				for (ChessPiece piece : board.getPieces()) {
+					assertSame("canonical piece", piece, board.getPieceAtSquare(piece.getSquare()));
+				}
+				board.copyPlacementTo(placement);
+				ImmutableChessboard copy = ImmutableChessboard.fromPlacement(placement);
+				assertEquals("copy", board, copy);
+				assertEquals("copy key", board.getZobristKey(), copy.getZobristKey());
+				assertEquals("copy pieces", board.getPieces(), copy.getPieces());
+
+				// Queries answered from the unpacked bitboards match a mutable board:
+				Chessboard mutable = new Chessboard(board);
+				for (int index = 0; index < Chessboard.BITBOARDS; index++) {
+					assertEquals("bitboard", mutable.getBitboard(index), board.getBitboard(index));
+				}
+				for (ChessPlayer player : ChessPlayer.values()) {
+					assertEquals("occupied", mutable.getOccupiedSquares(player),
+							board.getOccupiedSquares(player));
+					assertEquals("attacked", mutable.getAttackedSquares(player),
+							board.getAttackedSquares(player));
+					assertEquals("in check", mutable.isKingInCheck(player),
+							board.isKingInCheck(player));
+				}
+				assertEquals("side to move in check", mutable.isSideToMoveInCheck(),
+						board.isSideToMoveInCheck());
+			}
+		}
+	}
+
+	@Test
+	public void testMakeAndUnmakeMoves() {
+		ImmutableList<ChessGame> games =
+				PgnParser.parse(new File("src/data/chessdata_tiny.pgn"), identity());
+		for (ChessGame game : games.subList(0, 100)) {
+			Chessboard board = new Chessboard();
+			long startKey = board.getZobristKey();
+			for (int ply = 0; ply < game.getPlyCount(); ply++) {
+				board.makeMove(game.packedMoves[ply]);
+				ImmutableChessboard expected = game.boardStates.get(ply);
+				assertEquals("board", expected, board.asImmutable());
+				assertEquals("key", expected.getZobristKey(), board.getZobristKey());
+			}
+			for (int ply = game.getPlyCount() - 1; ply >= 0; ply--) {
+				board.unmakeMove();
+				long expectedKey = (ply == 0)
+						? startKey : game.boardStates.get(ply - 1).getZobristKey();
+				assertEquals("key after unmaking", expectedKey, board.getZobristKey());
+			}
+			assertEquals("start", new Chessboard().asImmutable(), board.asImmutable());
+			assertEquals("mutable start", new Chessboard(), board);
+			assertEquals("hash code", new Chessboard().hashCode(), board.hashCode());
+			assertEquals("pieces", 32, board.getPieces().size());
+		}
+	}
+
+	@Test
+	public void testPieceCounts() {
+		ImmutableList<ChessGame> games =
+				PgnParser.parse(new File("src/data/chessdata_tiny.pgn"), identity());
+		byte[] placement = new byte[Chessboard.PLACEMENT_LENGTH];
+		for (ChessGame game : games.subList(0, 100)) {
+			Chessboard board = new Chessboard();
+			for (int ply = 0; ply < game.getPlyCount(); ply++) {
+				board.makeMove(game.packedMoves[ply]);
+				board.copyPlacementTo(placement);
+				assertPieceCounts(board);
+				assertPieceCounts(game.boardStates.get(ply));
+				assertPieceCounts(ImmutableChessboard.fromPlacement(placement));
+			}
+			for (int ply = 0; ply < game.getPlyCount(); ply++) {
+				board.unmakeMove();
+			}
+			assertEquals("material", 43, board.getMaterial(ChessPlayer.WHITE));
+			assertEquals("material", 43, board.getMaterial(ChessPlayer.BLACK));
+		}
+	}
+
+	private static void assertPieceCounts(Chessboard board) {
+		int[] counts = new int[Chessboard.BITBOARDS];
+		int[] material = new int[2];
+		for (ChessPiece piece : board.getPieces()) {
+			counts[Chessboard.bitboardIndex(piece.getType(), piece.owner)]++;
+			material[piece.owner.ordinal()] += piece.getType().value;
+		}
+		for (ChessPlayer player : ChessPlayer.values()) {
+			for (ChessPieceType type : ChessPieceType.values()) {
+				assertEquals(type + " count", counts[Chessboard.bitboardIndex(type, player)],
+						board.getPieceCount(type, player));
+			}
+			assertEquals("material", material[player.ordinal()], board.getMaterial(player));
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static edu.columbia.eecs6893_2014.rjb.chess.PgnParserTest.identity;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Test cases for {@link Fen}.
+ */
+public class FenTest {
+	@Test
+	public void testFen() {
+		assertEquals("start", new Chessboard().asImmutable(),
+				Fen.parse(Fen.STARTING_POSITION).asImmutable());
+		assertEquals("start", Fen.STARTING_POSITION, Fen.toFen(new Chessboard()));
+		for (Perft.ReferencePosition position : Perft.REFERENCE_POSITIONS) {
+			assertEquals(position.name, position.fen + " 0 1",
+					Fen.toFen(Fen.parse(position.fen)));
+		}
+
+		ImmutableList<ChessGame> games =
+				PgnParser.parse(new File("src/data/chessdata_tiny.pgn"), identity());
+		for (ImmutableChessboard board : games.get(0).boardStates) {
+			ImmutableChessboard copy = Fen.parse(Fen.toFen(board)).asImmutable();
+			assertEquals("copy", board, copy);
+			assertEquals("copy key", board.getZobristKey(), copy.getZobristKey());
+		}
+
+		// A game which starts after 1. e4, with black to move.
+		String pgn = "[SetUp \"1\"]\n"
+				+ "[FEN \"rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1\"]\n"
+				+ "\n1... e5 2. Nf3 Nc6 1/2-1/2\n";
+		ChessGame fromFen = PgnParser.parse(pgn, identity()).get(0);
+		ChessGame fromStart =
+				PgnParser.parse("1. e4 e5 2. Nf3 Nc6 1/2-1/2\n", identity()).get(0);
+		assertEquals("plies", 3, fromFen.getPlyCount());
+		assertEquals("final board", fromStart.boardStates.get(3), fromFen.boardStates.get(2));
+
+		// Castling rights are dropped when the king or rook has left its starting square:
+		assertEquals("no rook", "4k3/8/8/8/8/8/8/4K3 w - - 0 1",
+				Fen.toFen(Fen.parse("4k3/8/8/8/8/8/8/4K3 w K - 0 1")));
+		assertEquals("king moved", "r3k2r/8/8/8/8/8/8/R2K3R w kq - 0 1",
+				Fen.toFen(Fen.parse("r3k2r/8/8/8/8/8/8/R2K3R w KQkq - 0 1")));
+
+		// Piece counts must fit in a legal game:
+		assertFenRejected("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQ1BNR w kq -");
+		assertFenRejected("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBKKBNR w kq -");
+		assertFenRejected("rnbqkbnr/pppppppp/8/8/8/P7/PPPPPPPP/RNBQKBNR w KQkq -");
+		assertFenRejected("4k3/8/8/8/8/QQQQQ3/QQQQQQ2/4K3 w - -");
+		assertEquals("ten queens", 10, Fen.parse("4k3/8/8/8/8/QQQQ4/QQQQQQ2/4K3 w - -")
+				.getPieceCount(ChessPieceType.QUEEN, ChessPlayer.WHITE));
+	}
+
+	private static void assertFenRejected(String fen) {
+		try {
+			Fen.parse(fen);
+			fail("expected position to be rejected: " + fen);
+		} catch (IllegalArgumentException expected) {
+			// The position is invalid.
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static edu.columbia.eecs6893_2014.rjb.chess.PgnParserTest.identity;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Test cases for {@link GameTrajectory} and {@link TrajectoryVectorizer}.
+ */
+public class GameTrajectoryTest {
+	@Test
+	public void testTrajectory() {
+		GameTrajectory mate = PgnParser.parse("1. e4 e5 2. Qh5 Nc6 3. Bc4 Nf6 4. Qxf7# 1-0\n",
+				identity()).get(0).trajectory;
+		assertEquals("white checks", 1, mate.getChecks(ChessPlayer.WHITE));
+		assertEquals("black checks", 0, mate.getChecks(ChessPlayer.BLACK));
+		assertEquals("white captures", 1, mate.getCaptures(ChessPlayer.WHITE));
+		assertEquals("black deficit", 1, mate.getMaxMaterialDeficit(ChessPlayer.BLACK));
+		assertEquals("swing", 1, mate.getMaterialSwing());
+		assertEquals("plies since capture", 0, mate.getPliesSinceCapture());
+
+		// The trajectory matches the aggregates over every board state:
+		File pgnFile = new File("src/data/chessdata_tiny.pgn");
+		ImmutableList<ChessGame> games = PgnParser.parse(pgnFile, identity());
+		for (ChessGame fullGame : games) {
+			int[] checks = new int[2];
+			int[] captures = new int[2];
+			int minBalance = 0;
+			int maxBalance = 0;
+			int pliesSinceCapture = 0;
+			ImmutableChessboard previous = new Chessboard().asImmutable();
+			for (ImmutableChessboard board : fullGame.boardStates) {
+				int mover = Chessboard.other(board.getSideToMove()).ordinal();
+				if (board.isKingInCheck(board.getSideToMove())) {
+					checks[mover]++;
+				}
+				if (countPieces(board) < countPieces(previous)) {
+					captures[mover]++;
+					pliesSinceCapture = 0;
+				} else {
+					pliesSinceCapture++;
+				}
+				int balance = board.getMaterial(ChessPlayer.WHITE)
+						- board.getMaterial(ChessPlayer.BLACK);
+				minBalance = Math.min(minBalance, balance);
+				maxBalance = Math.max(maxBalance, balance);
+				previous = board;
+			}
+			GameTrajectory trajectory = fullGame.trajectory;
+			for (ChessPlayer player : ChessPlayer.values()) {
+				assertEquals("checks", checks[player.ordinal()], trajectory.getChecks(player));
+				assertEquals("captures", captures[player.ordinal()],
+						trajectory.getCaptures(player));
+			}
+			assertEquals("white deficit", -minBalance,
+					trajectory.getMaxMaterialDeficit(ChessPlayer.WHITE));
+			assertEquals("black deficit", maxBalance,
+					trajectory.getMaxMaterialDeficit(ChessPlayer.BLACK));
+			assertEquals("swing", maxBalance - minBalance, trajectory.getMaterialSwing());
+			assertEquals("plies since capture", pliesSinceCapture,
+					trajectory.getPliesSinceCapture());
+		}
+
+		// The vectorizer doesn't keep any board states:
+		final TrajectoryVectorizer vectorizer = new TrajectoryVectorizer();
+		ImmutableList<ChessGame> streamedGames = PgnParser.parse(pgnFile,
+				new PgnParser.PlySelectingConverter<ChessGame>() {
+			@Override
+			public ChessGame convert(ChessGame game) {
+				return game;
+			}
+
+			@Override
+			public PlySelection getPlySelection() {
+				return vectorizer.getPlySelection();
+			}
+		});
+		for (int i = 0; i < games.size(); i++) {
+			assertTrue("board states not kept", streamedGames.get(i).boardStates.isEmpty());
+			assertEquals("trajectory", games.get(i).trajectory, streamedGames.get(i).trajectory);
+			assertEquals("vector", vectorizer.vectorize(games.get(i)).vector,
+					vectorizer.vectorize(streamedGames.get(i)).vector);
+		}
+	}
+
+	private static int countPieces(ImmutableChessboard board) {
+		int count = 0;
+		for (ChessPlayer player : ChessPlayer.values()) {
+			for (ChessPieceType type : ChessPieceType.values()) {
+				count += board.getPieceCount(type, player);
+			}
+		}
+		return count;
+	}
+}
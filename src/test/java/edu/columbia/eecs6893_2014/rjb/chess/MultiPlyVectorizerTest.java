@@ -0,0 +1,57 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static edu.columbia.eecs6893_2014.rjb.chess.PgnParserTest.identity;
+import static org.junit.Assert.assertEquals;
+
+import edu.columbia.eecs6893_2014.rjb.classifier.FeatureMatrix;
+import edu.columbia.eecs6893_2014.rjb.classifier.Vectorizer.Vector;
+
+import com.google.common.collect.ImmutableList;
+
+import org.apache.mahout.math.DenseVector;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Test cases for {@link MultiPlyVectorizer}.
+ */
+public class MultiPlyVectorizerTest {
+	@Test
+	public void testMultiPlyVectorization() {
+		File pgnFile = new File("src/data/chessdata_tiny.pgn");
+		BoardVectorizer vectorizer = new HeuristicVectorizer(/* turnsFromLast */ 2);
+		ChessGameFanOut fanOut = new ChessGameFanOut();
+		ChessGameFanOut.Output<Vector> twoFromLast = fanOut.add(vectorizer);
+		ChessGameFanOut.Output<Vector> fiveFromLast =
+				fanOut.add(new HeuristicVectorizer(/* turnsFromLast */ 5));
+		ChessGameFanOut.PlyMatrixOutput fromEnd = fanOut.addMatrices(
+				MultiPlyVectorizer.fromEnd(vectorizer, /* turnsFromLast */ 2, 5));
+		ChessGameFanOut.Output<ImmutableList<MultiPlyVectorizer.PlyVector>> fromStart =
+				fanOut.add(MultiPlyVectorizer.fromStart(vectorizer, /* plies */ 0, 1000));
+		ChessGameFanOut.Output<ChessGame> games = fanOut.add(identity());
+		PgnParser.parse(pgnFile, fanOut);
+
+		// Rows from the end match the vectorizers for each turn:
+		FeatureMatrix twoMatrix = fromEnd.get(2);
+		FeatureMatrix fiveMatrix = fromEnd.get(5);
+		for (int row = 0; row < games.get().size(); row++) {
+			assertEquals("two from last", twoFromLast.get().get(row).vector,
+					twoMatrix.getRow(row));
+			assertEquals("five from last", fiveFromLast.get().get(row).vector,
+					fiveMatrix.getRow(row));
+			assertEquals("category", twoFromLast.get().get(row).category,
+					fiveMatrix.getCategory(row));
+		}
+
+		// Rows from the start are only given for plies the game reached:
+		for (int i = 0; i < games.get().size(); i++) {
+			ImmutableList<MultiPlyVectorizer.PlyVector> vectors = fromStart.get().get(i);
+			assertEquals("vectors", 1, vectors.size());
+			assertEquals("ply", 0, vectors.get(0).ply);
+			double[] expected = new double[vectorizer.features().size()];
+			vectorizer.writeFeatures(games.get().get(i).getBoardState(0), expected, 0);
+			assertEquals("first ply", new DenseVector(expected), vectors.get(0).vector);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Test cases for {@link OpeningCache}.
+ */
+public class OpeningCacheTest {
+	private final ImmutableChessboard board = new Chessboard().asImmutable();
+
+	@Test
+	public void testLookups() {
+		OpeningCache cache = new OpeningCache();
+		assertEquals("missing move", null, cache.getChild(cache.getRoot(), "e4"));
+		OpeningCache.Node e4 =
+				cache.addChild(cache.getRoot(), "e4", (short) 0, board, /* isCheck */ false);
+		assertSame("cached move", e4, cache.getChild(cache.getRoot(), "e4"));
+		assertEquals("ply", 1, e4.ply);
+		assertEquals("hits", 1, cache.getHits());
+		assertEquals("misses", 1, cache.getMisses());
+	}
+
+	@Test
+	public void testMaxPlies() {
+		OpeningCache cache = new OpeningCache(/* maxPlies */ 2, /* maxNodes */ 10);
+		OpeningCache.Node e4 =
+				cache.addChild(cache.getRoot(), "e4", (short) 0, board, /* isCheck */ false);
+		OpeningCache.Node e5 = cache.addChild(e4, "e5", (short) 0, board, /* isCheck */ false);
+		assertEquals("past max plies", null,
+				cache.addChild(e5, "Nf3", (short) 0, board, /* isCheck */ false));
+		assertEquals("size", 2, cache.size());
+	}
+
+	@Test
+	public void testEviction() {
+		// The least recently used moves are evicted, with the moves which follow them.
+		OpeningCache cache = new OpeningCache(/* maxPlies */ 20, /* maxNodes */ 2);
+		OpeningCache.Node e4 =
+				cache.addChild(cache.getRoot(), "e4", (short) 0, board, /* isCheck */ false);
+		OpeningCache.Node e5 = cache.addChild(e4, "e5", (short) 0, board, /* isCheck */ false);
+		assertEquals("size", 2, cache.size());
+		assertSame("e4", e4, cache.getChild(cache.getRoot(), "e4"));
+		cache.addChild(cache.getRoot(), "d4", (short) 0, board, /* isCheck */ false);
+		assertEquals("size after eviction", 2, cache.size());
+		assertEquals("e5 evicted", null,
+				cache.addChild(e5, "Nf3", (short) 0, board, /* isCheck */ false));
+		assertSame("e4 kept", e4, cache.getChild(cache.getRoot(), "e4"));
+		cache.addChild(cache.getRoot(), "c4", (short) 0, board, /* isCheck */ false);
+		assertEquals("d4 evicted", null, cache.getChild(cache.getRoot(), "d4"));
+
+		// Evicting a move also evicts the moves which follow it, including a move which
+		// was just added.
+		assertEquals("c5 evicted with e4", null,
+				cache.addChild(e4, "c5", (short) 0, board, /* isCheck */ false));
+		assertEquals("size after eviction", 1, cache.size());
+		assertEquals("e4 evicted", null, cache.getChild(cache.getRoot(), "e4"));
+		assertEquals("c5 evicted", null, cache.getChild(e4, "c5"));
+	}
+}
@@ -0,0 +1,48 @@
+package edu.columbia.eecs6893_2014.rjb.chess;
+
+import static edu.columbia.eecs6893_2014.rjb.chess.PgnParserTest.identity;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Test cases for {@link Perft} and {@link MoveGenerator}.
+ */
+public class PerftTest {
+	@Test
+	public void testPerft() {
+		for (Perft.ReferencePosition position : Perft.REFERENCE_POSITIONS) {
+			for (int depth = 1; depth <= position.nodeCounts.length
+					&& position.nodeCounts[depth - 1] <= 100000; depth++) {
+				assertEquals(position.name + " depth " + depth, position.nodeCounts[depth - 1],
+						Perft.perft(Fen.parse(position.fen), depth));
+			}
+		}
+
+		// Castling rights without a rook don't generate castling.
+		assertEquals("castling without a rook", 5,
+				Perft.perft(Fen.parse("4k3/8/8/8/8/8/8/4K3 w K - 0 1"), 1));
+
+		// Every move played in a game must be one of the generated legal moves.
+		ImmutableList<ChessGame> games =
+				PgnParser.parse(new File("src/data/chessdata_tiny.pgn"), identity());
+		short[] moves = new short[MoveGenerator.MAX_MOVES];
+		for (ChessGame game : games.subList(0, 100)) {
+			Chessboard board = new Chessboard();
+			for (short packedMove : game.packedMoves) {
+				int count = MoveGenerator.generateLegalMoves(board, moves);
+				boolean found = false;
+				for (int i = 0; i < count; i++) {
+					found |= moves[i] == packedMove;
+				}
+				assertTrue("move was not generated", found);
+				board.makeMove(packedMove);
+			}
+		}
+	}
+}
@@ -1,14 +1,26 @@
 package edu.columbia.eecs6893_2014.rjb.chess;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
 
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Test cases for {@link PgnParser}.
  */
@@ -82,6 +94,273 @@ public class PgnParserTest {
 		assertEquals("last turn", lastTurnExpected, lastTurnActual);
 	}
 
+	@Test
+	public void testMetadataValuesAreShared() {
+		String escapedPgnString = pgnString.replace("Moscow (Russia)", "Moscow \\\\ (Russia)");
+		ImmutableList<ChessGame> games =
+				PgnParser.parse(escapedPgnString + pgnString, identity());
+		assertEquals("escaped backslash", "Moscow \\ (Russia)", games.get(0).metadata.get("Site"));
+		assertSame("shared value", games.get(0).metadata.get("White"),
+				games.get(1).metadata.get("White"));
+		assertSame("shared key", games.get(0).metadata.keySet().asList().get(0),
+				games.get(1).metadata.keySet().asList().get(0));
+	}
+
+	@Test
+	public void testHeaderParsing() {
+		File pgnFile = new File("src/data/chessdata_tiny.pgn");
+		ImmutableList<ChessGame> games = PgnParser.parse(pgnFile, identity());
+		ImmutableList<ChessGameHeader> headers = PgnParser.parseHeaders(pgnFile);
+		assertEquals("header count", games.size(), headers.size());
+		PgnIndex index = PgnIndex.build(pgnFile);
+		long expectedOffset = 0;
+		for (int i = 0; i < games.size(); i++) {
+			assertEquals("metadata", games.get(i).metadata, headers.get(i).metadata);
+			assertEquals("offset", expectedOffset, headers.get(i).offset);
+			assertTrue("tags within game", headers.get(i).length < index.getLength(i));
+			expectedOffset += index.getLength(i);
+		}
+		assertEquals("total length", pgnFile.length(), expectedOffset);
+
+		// Filters see the same headers, although they are applied before the moves are read.
+		final ImmutableList.Builder<ChessGameHeader> filtered = ImmutableList.builder();
+		PgnParser.parseFiltered(pgnFile, identity(), new Predicate<ChessGameHeader>() {
+			@Override
+			public boolean apply(ChessGameHeader header) {
+				filtered.add(header);
+				return false;
+			}
+		});
+		assertEquals("filtered headers", headers, filtered.build());
+
+		ChessGameHeader header = PgnParser.parseHeaders(pgnString).get(0);
+		assertEquals("WhiteElo", Integer.valueOf(2524), header.getInteger("WhiteElo"));
+		assertEquals("Round", "6", header.get("Round"));
+		assertEquals("Event", null, header.getInteger("Event"));
+	}
+
+	@Test
+	public void testFilteredParsing() {
+		File pgnFile = new File("src/data/chessdata_tiny.pgn");
+		Predicate<ChessGameHeader> filter = Predicates.and(
+				HeaderFilters.decisive(), HeaderFilters.ecoPrefix("A0"));
+		ImmutableList.Builder<ChessGame> expected = ImmutableList.builder();
+		for (ChessGame game : PgnParser.parse(pgnFile, identity())) {
+			if (game.winner != null && game.metadata.get("ECO").startsWith("A0")) {
+				expected.add(game);
+			}
+		}
+		ImmutableList<ChessGame> filtered = PgnParser.parseFiltered(pgnFile, identity(), filter);
+		assertFalse("some games expected", filtered.isEmpty());
+		assertEquals("filtered games", expected.build(), filtered);
+	}
+
+	@Test
+	public void testStreaming() {
+		ImmutableList<ChessGame> expected = PgnParser.parse(pgnString, identity());
+
+		// Pull-style:
+		PgnParser.ChessGameIterator<ChessGame> iterator =
+				PgnParser.iterate(pgnString + pgnString, identity());
+		assertTrue("first game expected", iterator.hasNext());
+		assertEquals("first game", expected.get(0), iterator.next());
+		assertTrue("second game expected", iterator.hasNext());
+		assertEquals("second game", expected.get(0), iterator.next());
+		assertFalse("only two games expected", iterator.hasNext());
+		iterator.close();
+
+		// Push-style:
+		final ImmutableList.Builder<ChessGame> sunk = ImmutableList.builder();
+		PgnParser.parse(pgnString, identity(), new PgnParser.ChessGameSink<ChessGame>() {
+			@Override
+			public void accept(ChessGame game) {
+				sunk.add(game);
+			}
+		});
+		assertEquals("sunk games", expected, sunk.build());
+	}
+
+	@Test
+	public void testParallelParsing() {
+		File pgnFile = new File("src/data/chessdata_tiny.pgn");
+		ImmutableList<ChessGame> expected = PgnParser.parse(pgnFile, identity());
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			// Use small chunks, so that the file is actually split:
+			final ImmutableList.Builder<ChessGame> ordered = ImmutableList.builder();
+			PgnParser.parseParallel(pgnFile, identity(), /* filter */ null,
+					new PgnParser.ChessGameSink<ChessGame>() {
+				@Override
+				public void accept(ChessGame game) {
+					ordered.add(game);
+				}
+			}, /* ordered */ true, pool, /* chunkLength */ 32 * 1024);
+			assertEquals("ordered games", expected, ordered.build());
+
+			final ImmutableMultiset.Builder<ChessGame> unordered = ImmutableMultiset.builder();
+			PgnParser.parseParallel(pgnFile, identity(), /* filter */ null,
+					new PgnParser.ChessGameSink<ChessGame>() {
+				@Override
+				public void accept(ChessGame game) {
+					unordered.add(game);
+				}
+			}, /* ordered */ false, pool, /* chunkLength */ 32 * 1024);
+			assertEquals("unordered games", ImmutableMultiset.copyOf(expected), unordered.build());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testIndexedParsing() throws IOException {
+		File pgnFile = new File("src/data/chessdata_tiny.pgn");
+		ImmutableList<ChessGame> expected = PgnParser.parse(pgnFile, identity());
+		PgnIndex index = PgnIndex.build(pgnFile);
+		assertEquals("indexed games", expected.size(), index.size());
+
+		File indexFile = File.createTempFile("chessdata_tiny", ".idx");
+		try {
+			index.write(indexFile);
+			assertEquals("read index", index, PgnIndex.read(indexFile));
+		} finally {
+			indexFile.delete();
+		}
+
+		// Indexed headers keep enough tags for header filters:
+		Predicate<ChessGameHeader> filter = HeaderFilters.decisive();
+		ImmutableList.Builder<ChessGame> decisive = ImmutableList.builder();
+		for (ChessGame game : expected) {
+			if (game.winner != null) {
+				decisive.add(game);
+			}
+		}
+		ImmutableList<Integer> gameNumbers = index.find(filter);
+		assertEquals("decisive games",
+				decisive.build(), PgnParser.parseGames(pgnFile, index, gameNumbers, identity()));
+
+		int last = index.size() - 1;
+		assertEquals("single game", expected.get(last),
+				PgnParser.parseGame(pgnFile, index, last, identity()));
+		assertEquals("range of games", expected.subList(10, 20),
+				PgnParser.parseRange(pgnFile, index.getOffset(10), index.getOffset(20), identity()));
+	}
+
+	@Test
+	public void testFanOut() {
+		File pgnFile = new File("src/data/chessdata_tiny.pgn");
+		ImmutableList<ChessGame> expected = PgnParser.parse(pgnFile, identity());
+		PgnParser.ChessGameConverter<String> whitePlayer =
+				new PgnParser.ChessGameConverter<String>() {
+			@Override
+			public String convert(ChessGame game) {
+				return game.metadata.get("White");
+			}
+		};
+
+		ChessGameFanOut fanOut = new ChessGameFanOut();
+		ChessGameFanOut.Output<ChessGame> games = fanOut.add(identity());
+		ChessGameFanOut.Output<String> whitePlayers = fanOut.add(whitePlayer);
+		PgnParser.parse(pgnFile, fanOut);
+		assertEquals("games", expected, games.get());
+		assertEquals("white players", PgnParser.parse(pgnFile, whitePlayer), whitePlayers.get());
+
+		// The converters are fixed once the fan-out has been used.
+		try {
+			fanOut.add(whitePlayer);
+			fail("expected registering after parsing to be rejected");
+		} catch (IllegalStateException exception) {
+			// The converter and sink in use would disagree about the converters.
+		}
+	}
+
+	@Test
+	public void testCachedParsing() throws IOException {
+		File directory = Files.createTempDir();
+		File pgnFile = new File(directory, "chessdata_tiny.pgn");
+		File cacheFile = ParsedGameCache.cacheFileFor(pgnFile);
+		try {
+			Files.copy(new File("src/data/chessdata_tiny.pgn"), pgnFile);
+			ImmutableList<ChessGame> expected = PgnParser.parse(pgnFile, identity());
+
+			// The first parse writes the cache, and the second replays from it:
+			assertEquals("parsed games", expected, PgnParser.parseCached(pgnFile, identity()));
+			assertTrue("cache written", cacheFile.isFile());
+			assertEquals("replayed games", expected, PgnParser.parseCached(pgnFile, identity()));
+
+			// Changing the PGN file invalidates the cache:
+			Files.write(pgnString, pgnFile, Charsets.UTF_8);
+			assertEquals("changed games",
+					PgnParser.parse(pgnString, identity()), PgnParser.parseCached(pgnFile, identity()));
+		} finally {
+			cacheFile.delete();
+			pgnFile.delete();
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void testPlySelection() {
+		File pgnFile = new File("src/data/chessdata_tiny.pgn");
+		ImmutableList<ChessGame> expected = PgnParser.parse(pgnFile, identity());
+		ImmutableList<ChessGame> selected = PgnParser.parse(pgnFile,
+				new PgnParser.PlySelectingConverter<ChessGame>() {
+			@Override
+			public ChessGame convert(ChessGame game) {
+				return game;
+			}
+
+			@Override
+			public PlySelection getPlySelection() {
+				return PlySelection.fromStart(0, 5).union(PlySelection.fromEnd(1, 3));
+			}
+		});
+
+		assertEquals("games", expected.size(), selected.size());
+		for (int i = 0; i < expected.size(); i++) {
+			ChessGame full = expected.get(i);
+			ChessGame game = selected.get(i);
+			int plyCount = full.boardStates.size();
+			assertEquals("ply count", plyCount, game.getPlyCount());
+			assertTrue("board states not kept", game.boardStates.isEmpty());
+			assertEquals("first ply", full.boardStates.get(0), game.getBoardState(0));
+			if (plyCount > 5) {
+				assertEquals("sixth ply", full.boardStates.get(5), game.getBoardState(5));
+			}
+			assertEquals("last ply", full.boardStates.get(plyCount - 1),
+					game.getBoardState(plyCount - 1));
+			assertEquals("last ply key", full.boardStates.get(plyCount - 1).getZobristKey(),
+					game.getBoardState(plyCount - 1).getZobristKey());
+			int thirdFromLast = Math.max(plyCount - 3, 0);
+			assertEquals("third ply from last", full.boardStates.get(thirdFromLast),
+					game.getBoardState(thirdFromLast));
+		}
+	}
+
+	@Test
+	public void testOpeningCache() {
+		// The second game follows the first through the cache, sharing its boards.
+		ImmutableList<ChessGame> games = PgnParser.parse(pgnString + pgnString, identity());
+		ChessGame game = PgnParser.parse(pgnString, identity()).get(0);
+		assertEquals("first game", game, games.get(0));
+		assertEquals("second game", game, games.get(1));
+		for (int ply = 0; ply < game.getPlyCount(); ply++) {
+			assertEquals("shared board " + ply, ply < OpeningCache.DEFAULT_MAX_PLIES,
+					games.get(0).boardStates.get(ply) == games.get(1).boardStates.get(ply));
+		}
+	}
+
+	/**
+	 * Returns a converter which keeps each game as it is; also used by other tests.
+	 */
+	static PgnParser.ChessGameConverter<ChessGame> identity() {
+		return new PgnParser.ChessGameConverter<ChessGame>() {
+			@Override
+			public ChessGame convert(ChessGame game) {
+				return game;
+			}
+		};
+	}
+
 	private ImmutableChessboard getFirstTurnExpected() {
 		ImmutableSet.Builder<ChessPiece> pieces = ImmutableSet.builder();
 		pieces.add(new ChessPiece(ChessPieceType.ROOK, ChessPlayer.BLACK, 7, 0));
@@ -116,7 +395,11 @@ public class PgnParserTest {
 		pieces.add(new ChessPiece(ChessPieceType.BISHOP, ChessPlayer.WHITE, 0 , 5));
 		pieces.add(new ChessPiece(ChessPieceType.KNIGHT, ChessPlayer.WHITE, 2 , 5));
 		pieces.add(new ChessPiece(ChessPieceType.ROOK, ChessPlayer.WHITE, 0 , 7));
-		Chessboard board = new Chessboard(pieces.build());
+		// After 1. Nf3, nobody has castled or lost a castling right:
+		Chessboard board = new Chessboard(pieces.build(), ChessPlayer.BLACK,
+				Chessboard.WHITE_KINGSIDE | Chessboard.WHITE_QUEENSIDE
+						| Chessboard.BLACK_KINGSIDE | Chessboard.BLACK_QUEENSIDE,
+				/* enPassantFile */ -1);
 		return board.asImmutable();
 	}
 
@@ -148,7 +431,9 @@ public class PgnParserTest {
 		pieces.add(new ChessPiece(ChessPieceType.ROOK, ChessPlayer.WHITE, 0, 5));
 		pieces.add(new ChessPiece(ChessPieceType.QUEEN, ChessPlayer.WHITE, 1, 6));
 		pieces.add(new ChessPiece(ChessPieceType.KING, ChessPlayer.WHITE, 0 , 6));
-		Chessboard board = new Chessboard(pieces.build());
+		// After 23... O-O-O, both players have castled:
+		Chessboard board = new Chessboard(pieces.build(), ChessPlayer.WHITE,
+				/* castlingRights */ 0, /* enPassantFile */ -1);
 		return board.asImmutable();
 	}
 
@@ -172,7 +457,8 @@ public class PgnParserTest {
 		pieces.add(new ChessPiece(ChessPieceType.ROOK, ChessPlayer.WHITE, 0, 5));
 		pieces.add(new ChessPiece(ChessPieceType.QUEEN, ChessPlayer.WHITE, 1, 6));
 		pieces.add(new ChessPiece(ChessPieceType.KING, ChessPlayer.WHITE, 0, 7));
-		Chessboard board = new Chessboard(pieces.build());
+		Chessboard board = new Chessboard(pieces.build(), ChessPlayer.BLACK,
+				/* castlingRights */ 0, /* enPassantFile */ -1);
 		return board.asImmutable();
 	}
 }
@@ -0,0 +1,52 @@
+package edu.columbia.eecs6893_2014.rjb.classifier;
+
+import static org.junit.Assert.assertEquals;
+
+import edu.columbia.eecs6893_2014.rjb.chess.ChessGameFanOut;
+import edu.columbia.eecs6893_2014.rjb.chess.ChessGameVectorizer;
+import edu.columbia.eecs6893_2014.rjb.chess.HeuristicVectorizer;
+import edu.columbia.eecs6893_2014.rjb.chess.PgnParser;
+import edu.columbia.eecs6893_2014.rjb.classifier.Vectorizer.Vector;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Test cases for {@link FeatureMatrix}.
+ */
+public class FeatureMatrixTest {
+	@Test
+	public void testFeatureMatrix() {
+		File pgnFile = new File("src/data/chessdata_tiny.pgn");
+		ChessGameVectorizer vectorizer = new HeuristicVectorizer(/* turnsFromLast */ 2);
+		ChessGameFanOut fanOut = new ChessGameFanOut();
+		ChessGameFanOut.Output<Vector> vectorOutput = fanOut.add(vectorizer);
+		ChessGameFanOut.MatrixOutput matrixOutput = fanOut.addMatrix(vectorizer);
+		PgnParser.parse(pgnFile, fanOut);
+
+		ImmutableList<Vector> vectors = vectorOutput.get();
+		FeatureMatrix matrix = matrixOutput.get();
+		ImmutableList<Vector> matrixVectors = matrix.toVectors();
+		assertEquals("rows", vectors.size(), matrix.getRowCount());
+		assertEquals("columns", vectorizer.features().size(), matrix.getColumnCount());
+		for (int row = 0; row < matrix.getRowCount(); row++) {
+			Vector vector = vectors.get(row);
+			assertEquals("category", vector.category, matrix.getCategory(row));
+			assertEquals("label", vectorizer.categories().indexOf(vector.category),
+					matrix.getLabel(row));
+			for (int column = 0; column < matrix.getColumnCount(); column++) {
+				assertEquals("value", vector.vector.get(column), matrix.get(row, column), 0);
+				assertEquals("row view", vector.vector.get(column),
+						matrix.getRow(row).get(column), 0);
+			}
+			assertEquals("vectors", vector.vector, matrixVectors.get(row).vector);
+		}
+
+		// Rows are views of the matrix, rather than copies.
+		matrix.getRow(0).set(1, -1);
+		assertEquals("changed value", -1, matrix.get(0, 1), 0);
+	}
+}